@@ -0,0 +1,116 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlAdaptiveRunner;
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+public class AdaptiveTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(SwirlEngine.N_RUNS_MAX); // The budget
+        SwirlParameterBundle parameters = spb.build();
+        int t = parameters.getNPeriods();
+        double z = SwirlAdaptiveRunner.Z_95;
+
+        //  Converges within both targets, well inside the budget
+        SwirlAdaptiveRunner runner = new SwirlAdaptiveRunner(parameters, 1L);
+        runner.setBatchSize(200);
+        runner.setMeanHalfWidth(20.0d);
+        SwirlOutputBundle output = runner.run();
+        System.out.println(runner.getStop() + " after " + runner.getRuns() + " runs: " +
+                           "extinction +- " + output.getExtinctionHalfWidth(z) + ", mean +- " +
+                           output.getSummaryHalfWidth(t, z));
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.CONVERGED ||
+            runner.getRuns() <= runner.getMinRuns() || runner.getRuns() % 200 != 0 ||
+            runner.getRuns() >= parameters.getNRuns() ||
+            output.getExtinctionHalfWidth(z) > runner.getExtinctionHalfWidth() ||
+            output.getSummaryHalfWidth(t, z) > runner.getMeanHalfWidth()) {
+            System.out.println("Failed: convergence");
+            return;
+        }
+
+        //  Antithetic pairs also converge, checked on the paired interval
+        runner = new SwirlAdaptiveRunner(parameters, 1L);
+        runner.getEngine().setAntithetic(true);
+        runner.setBatchSize(200);
+        runner.setMeanHalfWidth(20.0d);
+        output = runner.run();
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.CONVERGED ||
+            output.getPairedSummaryHalfWidth(t, z) > runner.getMeanHalfWidth()) {
+            System.out.println("Failed: antithetic convergence");
+            return;
+        }
+
+        //  Stops at the budget when the targets are out of reach
+        spb.setNRuns(501);
+        SwirlParameterBundle small = spb.build();
+        runner = unreachable(small, false);
+        runner.run();
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.RUN_LIMIT || runner.getRuns() != 501 ||
+            runner.isConverged()) {
+            System.out.println("Failed: run limit");
+            return;
+        }
+
+        //  Batches of an odd size keep antithetic pairs together, pairs are split otherwise
+        long pairs = unreachable(small, true).run().getPairCounts()[t];
+        long split = unreachable(small, false).run().getPairCounts()[t];
+        System.out.println("Pairs: " + pairs + " antithetic, " + split + " otherwise");
+        if (pairs != 250 || split >= 250) {
+            System.out.println("Failed: antithetic batches");
+            return;
+        }
+
+        //  Stops at the time limit, and continues when run again
+        runner = unreachable(parameters, false);
+        runner.setTimeLimit(100L);
+        runner.run();
+        int runs = runner.getRuns();
+        System.out.println(runner.getStop() + " after " + runs + " runs in " +
+                           runner.getElapsed() + " ms");
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.TIME_LIMIT ||
+            runner.getElapsed() < 100L || runs >= parameters.getNRuns()) {
+            System.out.println("Failed: time limit");
+            return;
+        }
+        runner.setTimeLimit(200L);
+        runner.run();
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.TIME_LIMIT || runner.getRuns() <= runs) {
+            System.out.println("Failed: continued");
+            return;
+        }
+
+        //  Deterministic parameters converge on their first batch, whatever the targets
+        double[][] sds = new double[2][SwirlEngine.MAX_AGE_DEFAULT+1];
+        for (double[] sd : sds) sd[SwirlEngine.MAX_AGE_DEFAULT] = 1.0d; // Unused
+        spb.setNRuns(SwirlEngine.N_RUNS_MAX);
+        spb.setSDMortality(sds);
+        spb.setSDCarryingCapacity(0.0d);
+        spb.setLitterProbability(new double[]{0.0d, .2d, .4d, .3d, .1d});
+        runner = unreachable(spb.build(), false);
+        runner.run();
+        if (runner.getStop() != SwirlAdaptiveRunner.Stop.CONVERGED ||
+            runner.getRuns() != runner.getMinRuns()) {
+            System.out.println("Failed: deterministic");
+            return;
+        }
+        System.out.println("Passed");
+    }
+
+    /**
+     * A runner whose targets no number of runs can reach, in batches of an odd size.
+     */
+    private static SwirlAdaptiveRunner unreachable(SwirlParameterBundle parameters,
+                                                   boolean antithetic) {
+        SwirlAdaptiveRunner runner = new SwirlAdaptiveRunner(parameters, 1L);
+        runner.getEngine().setAntithetic(antithetic);
+        runner.setBatchSize(7);
+        runner.setMinRuns(10);
+        runner.setExtinctionHalfWidth(1e-12d);
+        runner.setMeanHalfWidth(1e-12d);
+        return runner;
+    }
+}
@@ -0,0 +1,63 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlPeriodListener;
+
+import java.lang.management.ManagementFactory;
+
+public class AllocationTestRun {
+    public static void main(String... args) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocation measurement not supported");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(2000);
+
+        SwirlParameterBundle parameters = spb.build();
+
+        final long[] total = new long[1];
+
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setKeepData(false);
+        engine.setListener(new SwirlPeriodListener() {
+            @Override
+            public void onPeriod(int i, int t, long[] population, int offset) {
+                total[0] += population[offset];
+            }
+
+            @Override
+            public void onRunComplete(int i) {}
+        });
+        engine.initialize();
+
+        //  Warm up, so that compilation does not count
+        engine.iterate(parameters.getNRuns() / 2);
+
+        //  Each call has a constant overhead, so compare two batch sizes, taking the least of a
+        //  few attempts so that one off allocations by the JVM do not count
+        long small = Long.MAX_VALUE, large = Long.MAX_VALUE, start;
+        for (int k = 0; k < 5; k++) {
+            start = threads.getThreadAllocatedBytes(id);
+            engine.iterate(10);
+            small = Math.min(small, threads.getThreadAllocatedBytes(id) - start);
+
+            start = threads.getThreadAllocatedBytes(id);
+            engine.iterate(110);
+            large = Math.min(large, threads.getThreadAllocatedBytes(id) - start);
+        }
+
+        long perRun = (large - small) / 100;
+
+        System.out.println("Allocated: 10 runs=" + small + "B, 110 runs=" + large + "B");
+        System.out.println("Per run: " + perRun + "B (" + total[0] + ")");
+        System.out.println((perRun == 0) ? "Passed" : "Failed");
+    }
+}
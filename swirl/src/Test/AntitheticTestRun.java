@@ -0,0 +1,59 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+public class AntitheticTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(2000);
+        spb.setNPeriods(100);
+        SwirlParameterBundle parameters = spb.build();
+
+        //  Odd runs must mirror the draws of the even run before them
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setAntithetic(true);
+        engine.initialize();
+        int T = parameters.getNPeriods()+1;
+        double[] even = new double[T*3], odd = new double[T*3];
+        engine.generateNoise(10, even);
+        engine.generateNoise(11, odd);
+        for (int e = 3; e < T*3; e++) {
+            if (even[e] != -odd[e]) {
+                System.out.println("Failed: run 11 does not negate run 10 at " + e);
+                return;
+            }
+        }
+
+        SwirlOutputBundle paired = run(parameters, true);
+        SwirlOutputBundle independent = run(parameters, false);
+
+        System.out.println("Variance of the mean total population saved by pairing (" +
+                           parameters.getNRuns() + " runs)");
+        System.out.println("t\tpaired mean\tindependent mean\tsaved");
+        for (int t = 0; t < T; t += parameters.getReportingInterval()) {
+            System.out.printf("%d\t%.1f\t%.1f\t%.1f%%%n", t, paired.getSummaryMeans()[t],
+                              independent.getSummaryMeans()[t],
+                              100.0d * paired.getVarianceReduction()[t]);
+        }
+
+        if (paired.getPairCounts()[T-1] != parameters.getNRuns() / 2) {
+            System.out.println("Failed: " + paired.getPairCounts()[T-1] + " pairs");
+            return;
+        }
+        System.out.println("Passed");
+    }
+
+    private static SwirlOutputBundle run(SwirlParameterBundle parameters, boolean antithetic) {
+        SwirlOutputBundle output = new SwirlOutputBundle(parameters, false);
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setAntithetic(antithetic);
+        engine.setKeepData(false);
+        engine.setOutput(output);
+        engine.completeTensor();
+        return output;
+    }
+}
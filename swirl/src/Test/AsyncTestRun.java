@@ -0,0 +1,85 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlAsyncRunner;
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AsyncTestRun {
+    public static void main(String... args) throws Exception {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(5000);
+        SwirlParameterBundle parameters = spb.build();
+
+        SwirlOutputBundle expected = new SwirlOutputBundle(parameters, false);
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setKeepData(false);
+        engine.setOutput(expected);
+        engine.completeTensor();
+
+        SwirlAsyncRunner runner = new SwirlAsyncRunner();
+        runner.setPool(ForkJoinPool.commonPool());
+        final AtomicInteger reports = new AtomicInteger(), last = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean(); // Reported on the runner's thread
+        CompletableFuture<SwirlOutputBundle> future = runner.submit(parameters, 1L,
+                new SwirlAsyncRunner.Progress() {
+                    @Override
+                    public void onProgress(int completed, int total, SwirlOutputBundle output) {
+                        if (completed <= last.get() || output.getCompleteRuns() != completed) {
+                            System.out.println("Failed: progress " + completed + " of " + total);
+                            failed.set(true);
+                        }
+                        last.set(completed);
+                        reports.incrementAndGet();
+                    }
+                });
+        System.out.println("Submitted, waiting on the future");
+        SwirlOutputBundle output = future.get();
+        System.out.println(reports.get() + " progress reports");
+        if (failed.get()) return;
+        if (!Arrays.equals(output.getSummaryMeans(), expected.getSummaryMeans()) ||
+            output.getNumberExtinction() != expected.getNumberExtinction()) {
+            System.out.println("Failed: results differ from the synchronous run");
+            return;
+        }
+
+        //  Cancelling stops the simulation at the next batch
+        runner.setPool(null);
+        runner.setBatchSize(10);
+        final SwirlEngine cancelled = new SwirlEngine(parameters, 1L);
+        cancelled.setKeepData(false);
+        final CompletableFuture<SwirlOutputBundle> stop = new CompletableFuture<>();
+        future = runner.submit(cancelled, new SwirlAsyncRunner.Progress() {
+            @Override
+            public void onProgress(int completed, int total, SwirlOutputBundle output) {
+                if (completed >= 100) stop.complete(output);
+            }
+        });
+        stop.get();
+        future.cancel(true);
+        try {
+            future.get();
+            System.out.println("Failed: not cancelled");
+            return;
+        } catch (CancellationException e) {
+            //  Expected
+        }
+        Thread.sleep(100L);
+        int executed = cancelled.iterationsCompleted();
+        System.out.println("Cancelled after " + executed + " runs");
+        if (executed >= parameters.getNRuns()) {
+            System.out.println("Failed: ran to completion");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -0,0 +1,112 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlNormalSource;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlRandom;
+import com.stochasticsystems.swirl.engine.SwirlResultCache;
+import com.stochasticsystems.swirl.engine.SwirlSobol;
+import com.stochasticsystems.swirl.engine.SwirlZiggurat;
+
+import java.util.Arrays;
+
+public class CacheTestRun {
+    public static void main(String... args) {
+        SwirlResultCache cache = new SwirlResultCache();
+        SwirlParameterBundle defaults = SwirlParameterBundle.getDefault();
+
+        long start = System.nanoTime();
+        SwirlOutputBundle first = cache.getOrRun(defaults, 1L);
+        long missTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        SwirlOutputBundle second = cache.getOrRun(new SwirlParameterBundle(defaults), 1L);
+        long hitTime = System.nanoTime() - start;
+        System.out.println("Miss: " + missTime / 1000L + " us, hit: " + hitTime / 1000L + " us");
+
+        if (first != second || cache.getHits() != 1 || cache.getMisses() != 1) {
+            System.out.println("Failed: equal parameters missed");
+            return;
+        }
+        if (cache.get(defaults, 2L, defaults.getNRuns()) != null) {
+            System.out.println("Failed: another seed hit");
+            return;
+        }
+
+        //  Other draws are cached apart
+        SwirlEngine antithetic = new SwirlEngine(defaults, 1L);
+        antithetic.setAntithetic(true);
+        SwirlEngine sobol = new SwirlEngine(defaults, 1L);
+        sobol.setNormalSource(new SwirlSobol(1L, defaults.getNPeriods(), 4));
+        SwirlEngine random = new SwirlEngine(defaults, 1L);
+        random.setNormalSource(new SwirlRandom(1L));
+        SwirlEngine ziggurat = new SwirlEngine(defaults, 1L);
+        ziggurat.setNormalSource(new SwirlZiggurat(1L)); // The default
+        if (cache.get(antithetic, defaults.getNRuns()) != null ||
+            cache.get(sobol, defaults.getNRuns()) != null ||
+            cache.get(random, defaults.getNRuns()) != null ||
+            cache.get(ziggurat, defaults.getNRuns()) != first) {
+            System.out.println("Failed: draws");
+            return;
+        }
+        SwirlOutputBundle paired = cache.getOrRun(antithetic);
+        SwirlEngine again = new SwirlEngine(defaults, 1L);
+        again.setAntithetic(true);
+        if (paired == first || cache.getOrRun(again) != paired ||
+            cache.getOrRun(defaults, 1L) != first) {
+            System.out.println("Failed: antithetic draws");
+            return;
+        }
+
+        //  A source of the caller's own cannot be identified, so it is never cached
+        final SwirlZiggurat draws = new SwirlZiggurat(1L);
+        SwirlEngine custom = new SwirlEngine(defaults, 1L);
+        custom.setNormalSource(new SwirlNormalSource() {
+            @Override
+            public double gaussian(int run, int period, int index) {
+                return draws.gaussian(run, period, index);
+            }
+        });
+        int size = cache.size();
+        SwirlOutputBundle own = cache.getOrRun(custom);
+        if (cache.get(custom, defaults.getNRuns()) != null || cache.size() != size ||
+            own == first || !Arrays.equals(own.getSummaryMeans(), first.getSummaryMeans())) {
+            System.out.println("Failed: custom source");
+            return;
+        }
+
+        //  Summaries match the full result
+        SwirlOutputBundle full = new SwirlOutputBundle(defaults);
+        full.addData(new SwirlEngine(defaults, 1L)
+                             .completeTensor(), 0, defaults.getNRuns());
+        SwirlOutputBundle summary = full.toSummary();
+        if (!Arrays.equals(summary.getSummaryMeans(), first.getSummaryMeans()) ||
+            !Arrays.deepEquals(summary.getPopulationSTDs(), full.getPopulationSTDs()) ||
+            summary.getPopulationTensor() != null) {
+            System.out.println("Failed: summary differs");
+            return;
+        }
+
+        //  The least recently used are evicted to stay within capacity
+        SwirlResultCache small = new SwirlResultCache(3 * 200000L, true);
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(10);
+        SwirlParameterBundle[] presets = new SwirlParameterBundle[5];
+        for (int h = 0; h < presets.length; h++) {
+            spb.setHarvestRate(10 * h);
+            presets[h] = spb.build();
+            small.getOrRun(presets[h], 1L);
+            small.getOrRun(presets[0], 1L); // Keep the first in use
+        }
+        System.out.println(small.size() + " entries, " + small.getWeight() + " bytes, " +
+                           small.getEvictions() + " evictions, hit rate " + small.getHitRate());
+        if (small.getWeight() > small.getCapacity() ||
+            small.get(presets[0], 1L, 10) == null || small.get(presets[1], 1L, 10) != null) {
+            System.out.println("Failed: eviction");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -0,0 +1,127 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlRandom;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class CheckpointTestRun {
+    public static void main(String... args) throws IOException {
+        File directory = Files.createTempDirectory("SwirlCheckpoint").toFile();
+        File file = new File(directory, "job.ckpt");
+        File log = new File(directory, "job.ckpt.runs");
+
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(1000);
+        SwirlParameterBundle parameters = spb.build();
+
+        //  Kept data: interrupted after the checkpoint, resumed, and completed with checkpoints
+        SwirlEngine reference = engine(parameters, true);
+        reference.completeTensor();
+
+        SwirlEngine dying = engine(parameters, true);
+        dying.initialize();
+        dying.iterate(250);
+        dying.checkpoint(file);
+        dying.iterate(100); // Lost
+        FileOutputStream torn = new FileOutputStream(log, true); // An append cut short
+        torn.write(new byte[]{0, 0, 0, 7, 1, 2, 3});
+        torn.close();
+
+        SwirlEngine resumed = SwirlEngine.resume(file);
+        System.out.println("Resumed at " + resumed.iterationsCompleted() + " runs, state " +
+                           file.length() + " bytes, log " + log.length() + " bytes");
+        if (resumed.iterationsCompleted() != 250 || resumed.getOutput() == null) {
+            System.out.println("Failed: resumed state");
+            return;
+        }
+        resumed.completeTensor(file, 0L);
+        if (!same(reference, resumed) ||
+            !Arrays.deepEquals(reference.getData(0), resumed.getData(0))) {
+            System.out.println("Failed: resumed results differ");
+            return;
+        }
+
+        //  Statistics only, another source and antithetic pairs
+        SwirlEngine streamed = engine(parameters, false);
+        streamed.completeTensor();
+        SwirlEngine partial = engine(parameters, false);
+        partial.initialize();
+        partial.iterate(300);
+        partial.checkpoint(file);
+        resumed = SwirlEngine.resume(file);
+        resumed.completeTensor();
+        if (!same(streamed, resumed) || !resumed.isAntithetic() ||
+            !Arrays.equals(streamed.getOutput().getVarianceReduction(),
+                           resumed.getOutput().getVarianceReduction())) {
+            System.out.println("Failed: streamed results differ");
+            return;
+        }
+
+        //  The cost of a checkpoint once runs are only appended
+        partial = engine(parameters, false);
+        partial.initialize();
+        int n = 0;
+        long time = 0L;
+        while (partial.iterationsLeft() > 0) {
+            partial.iterate(100);
+            long start = System.nanoTime();
+            partial.checkpoint(file);
+            time += System.nanoTime() - start;
+            n++;
+        }
+        System.out.println("Checkpoint: " + time / n / 1000L + " us, state " + file.length() +
+                           " bytes, log " + log.length() + " bytes");
+
+        //  A damaged checkpoint is refused
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() / 2);
+        int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0x01);
+        raf.close();
+        try {
+            SwirlEngine.resume(file);
+            System.out.println("Failed: damaged checkpoint read");
+            return;
+        } catch (IOException e) {
+            System.out.println("Refused: " + e.getMessage());
+        }
+
+        if (!file.delete() || !log.delete() || !directory.delete()) {
+            System.out.println("Failed: files left");
+            return;
+        }
+        System.out.println("Passed");
+    }
+
+    private static SwirlEngine engine(SwirlParameterBundle parameters, boolean keep) {
+        SwirlEngine engine = new SwirlEngine(parameters, 42L);
+        engine.setKeepData(keep);
+        engine.setOutput(new SwirlOutputBundle(parameters, keep));
+        if (!keep) {
+            engine.setNormalSource(new SwirlRandom(7L));
+            engine.setAntithetic(true);
+        }
+        return engine;
+    }
+
+    private static boolean same(SwirlEngine first, SwirlEngine second) {
+        SwirlOutputBundle a = first.getOutput(), b = second.getOutput();
+        return a.getCompleteRuns() == b.getCompleteRuns() && b.isFinal() &&
+               Arrays.equals(a.getSummaryMeans(), b.getSummaryMeans()) &&
+               Arrays.equals(a.getSummarySTDs(), b.getSummarySTDs()) &&
+               Arrays.deepEquals(a.getPopulationSTDs(), b.getPopulationSTDs()) &&
+               a.getExtinctionPercent() == b.getExtinctionPercent() &&
+               Arrays.equals(first.getZeroPopulationTimes(), second.getZeroPopulationTimes());
+    }
+}
@@ -0,0 +1,76 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentReadTestRun {
+    public static void main(String... args) throws Exception {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(5000);
+        SwirlParameterBundle parameters = spb.build();
+
+        //  Serial runs, published one at a time
+        if (!read(parameters, null)) return;
+
+        //  Pooled runs, published as the prefix they complete advances
+        ForkJoinPool pool = new ForkJoinPool(4);
+        boolean passed = read(parameters, pool);
+        pool.shutdown();
+        if (passed) System.out.println("Passed");
+    }
+
+    /**
+     * Streams runs while a single iterate call executes all of them, and checks them after.
+     */
+    private static boolean read(SwirlParameterBundle parameters, ForkJoinPool pool)
+            throws InterruptedException {
+        final SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setPool(pool);
+        engine.initialize();
+        final int I = parameters.getNRuns();
+        final long[][][][] read = new long[I][][][];
+        final AtomicInteger partial = new AtomicInteger(); // Reads of some runs but not all
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int last = 0;
+                while (last < I) {
+                    int published = engine.iterationsCompleted();
+                    if (published == last) {
+                        Thread.yield();
+                        continue;
+                    }
+                    long[][][][] runs = engine.getData(last, published);
+                    System.arraycopy(runs, 0, read, last, runs.length);
+                    last = published;
+                    if (published < I) partial.incrementAndGet();
+                }
+            }
+        });
+        reader.start();
+        engine.iterate(I);
+        reader.join();
+        System.out.println((pool == null ? "Serial: " : "Pooled: ") + partial.get() +
+                           " reads while iterating");
+
+        long[][][][] expected = engine.getData(0);
+        for (int i = 0; i < I; i++) {
+            if (!Arrays.deepEquals(read[i], expected[i])) {
+                System.out.println("Failed: run " + i + " read while incomplete");
+                return false;
+            }
+        }
+        if (partial.get() == 0) {
+            System.out.println("Failed: no runs published before iterate returned");
+            return false;
+        }
+        return true;
+    }
+}
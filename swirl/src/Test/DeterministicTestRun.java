@@ -0,0 +1,106 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlPopulationTensor;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class DeterministicTestRun {
+    public static void main(String... args) {
+        //  No mortality or carrying capacity SDs, and every reproductive female has a litter
+        double[][] sds = new double[2][SwirlEngine.MAX_AGE_DEFAULT+1];
+        for (double[] sd : sds) sd[SwirlEngine.MAX_AGE_DEFAULT] = 1.0d; // Unused
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(200);
+        spb.setSDMortality(sds);
+        spb.setSDCarryingCapacity(0.0d);
+        if (!spb.setLitterProbability(new double[]{0.0d, .2d, .4d, .3d, .1d}) ||
+            spb.setLitterProbability(new double[]{1.0d, 0.0d, 0.0d, 0.0d, 0.0d})) {
+            System.out.println("Failed: litter validation");
+            return;
+        }
+        spb.setLitterProbability(new double[]{0.0d, .2d, .4d, .3d, .1d});
+        SwirlParameterBundle parameters = spb.build();
+        spb.setSDCarryingCapacity(1.0d);
+        SwirlParameterBundle noisy = spb.build();
+        if (parameters == null || !parameters.isDeterministic() || noisy.isDeterministic() ||
+            SwirlParameterBundle.getDefault().isDeterministic()) {
+            System.out.println("Failed: isDeterministic");
+            return;
+        }
+
+        //  Every seed and pool gives the same runs, shared rather than stored
+        ForkJoinPool pool = new ForkJoinPool(4);
+        SwirlEngine reference = engine(parameters, 1L, null);
+        long[][][][] expected = reference.getData(0);
+        SwirlEngine[] engines = {reference, engine(parameters, 2L, null),
+                                 engine(parameters, 3L, pool)};
+        for (SwirlEngine engine : engines) {
+            SwirlPopulationTensor tensor = engine.getDataTensor(0, parameters.getNRuns());
+            if (!Arrays.deepEquals(expected, engine.getData(0)) || !tensor.isShared() ||
+                tensor.getRunStride() != 0 ||
+                tensor.getStorage() != SwirlPopulationTensor.Storage.HEAP) {
+                System.out.println("Failed: seed " + engine.getSeed() + " runs differ");
+                return;
+            }
+        }
+        pool.shutdown();
+        for (int i = 1; i < expected.length; i++) {
+            if (!Arrays.deepEquals(expected[0], expected[i])) {
+                System.out.println("Failed: run " + i + " differs");
+                return;
+            }
+        }
+
+        //  Runs executed on their own draws, as when not kept, are the same run
+        SwirlEngine dropped = new SwirlEngine(parameters, 4L);
+        dropped.setKeepData(false);
+        dropped.completeTensor();
+        for (int i : new int[]{0, 1, 77, parameters.getNRuns()-1}) {
+            if (!Arrays.deepEquals(expected[0], dropped.getRun(i))) {
+                System.out.println("Failed: run " + i + " executed differs");
+                return;
+            }
+        }
+
+        //  Statistics match those of the runs stored and added one by one
+        SwirlOutputBundle shared = reference.getOutput();
+        SwirlOutputBundle stored = new SwirlOutputBundle(parameters, true);
+        stored.setReplicates(4);
+        stored.addData(expected);
+        if (!Arrays.equals(shared.getSummaryMeans(), stored.getSummaryMeans()) ||
+            !Arrays.equals(shared.getSummarySTDs(), stored.getSummarySTDs()) ||
+            !Arrays.deepEquals(shared.getPopulationMeans(), stored.getPopulationMeans()) ||
+            !Arrays.deepEquals(shared.getPopulationSTDs(), stored.getPopulationSTDs()) ||
+            !Arrays.equals(shared.getPairCounts(), stored.getPairCounts()) ||
+            !Arrays.equals(shared.getPairedSummaryVariances(),
+                           stored.getPairedSummaryVariances()) ||
+            !Arrays.equals(shared.getReplicateSummaryVariances(),
+                           stored.getReplicateSummaryVariances()) ||
+            shared.getExtinctionPercent() != stored.getExtinctionPercent() ||
+            shared.getCompleteRuns() != stored.getCompleteRuns()) {
+            System.out.println("Failed: statistics differ");
+            return;
+        }
+        System.out.println("Passed");
+    }
+
+    private static SwirlEngine engine(SwirlParameterBundle parameters, long seed,
+                                      ForkJoinPool pool) {
+        SwirlEngine engine = new SwirlEngine(parameters, seed);
+        engine.setPool(pool);
+        engine.setStorage(SwirlPopulationTensor.Storage.MAPPED, null); // Ignored, see setStorage
+        SwirlOutputBundle output = new SwirlOutputBundle(parameters, true);
+        output.setReplicates(4);
+        engine.setOutput(output);
+        engine.initialize();
+        engine.iterate(6); // Replicates straddle the batches
+        engine.completeTensor();
+        return engine;
+    }
+}
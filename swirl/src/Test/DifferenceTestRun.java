@@ -0,0 +1,65 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlAdaptiveRunner;
+import com.stochasticsystems.swirl.engine.SwirlDifference;
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+public class DifferenceTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(2000);
+        spb.setHarvestRate(20);
+        SwirlParameterBundle first = spb.build();
+        spb.setHarvestRate(30);
+        SwirlParameterBundle second = spb.build();
+
+        SwirlDifference difference = new SwirlDifference(first, second);
+        difference.run(1L);
+
+        double z = SwirlAdaptiveRunner.Z_95;
+        int T = first.getNPeriods()+1;
+        System.out.println("Harvest 30 minus harvest 20, " + first.getNRuns() + " runs each");
+        System.out.println("t\tdifference\tpaired\tindependent\treduction");
+        for (int t = 0; t < T; t += first.getReportingInterval()) {
+            System.out.printf("%d\t%.1f\t+-%.1f\t+-%.1f\t%.1f%%%n", t,
+                              difference.getMeanDifferences()[t],
+                              difference.getDifferenceHalfWidth(t, z),
+                              difference.getIndependentHalfWidth(t, z),
+                              100.0d * difference.getVarianceReduction(t));
+        }
+        System.out.printf("Extinction\t%.4f\t+-%.4f\t(%d, %d discordant)%n",
+                          difference.getExtinctionDifference(),
+                          difference.getExtinctionDifferenceHalfWidth(z),
+                          difference.getFirstOnlyExtinct(), difference.getSecondOnlyExtinct());
+
+        //  The paired statistics must match the scenarios' own
+        SwirlOutputBundle a = difference.getFirstOutput(), b = difference.getSecondOutput();
+        double expected = b.getSummaryMeans()[T-1] - a.getSummaryMeans()[T-1];
+        if (Math.abs(difference.getMeanDifferences()[T-1] - expected) > 1e-6 ||
+            Math.abs(difference.getExtinctionDifference() -
+                     (b.getExtinctionPercent() - a.getExtinctionPercent())) > 1e-12) {
+            System.out.println("Failed: paired means disagree with the outputs");
+            return;
+        }
+
+        //  Independent runs estimate the same difference, less precisely
+        SwirlOutputBundle independent = new SwirlOutputBundle(second, false);
+        SwirlEngine engine = new SwirlEngine(second, 2L);
+        engine.setKeepData(false);
+        engine.setOutput(independent);
+        engine.completeTensor();
+        double unpaired = independent.getSummaryMeans()[T-1] - a.getSummaryMeans()[T-1];
+        double hw = difference.getIndependentHalfWidth(T-1, z);
+        System.out.printf("Independent estimate\t%.1f\t+-%.1f%n", unpaired, hw);
+        if (Math.abs(unpaired - expected) > 1.5d * hw ||
+            !(difference.getVarianceReduction(T-1) > 0.0d)) {
+            System.out.println("Failed: pairing did not help");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -0,0 +1,49 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+import java.util.Arrays;
+
+public class LockstepTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(103); // Leaves a partial last block for every width
+        SwirlParameterBundle parameters = spb.build();
+        spb.setHarvestRate(40); // Some runs go extinct
+        SwirlParameterBundle harvested = spb.build();
+
+        int[] widths = {1, 4, 7, 16};
+        boolean[] states = {false, true};
+        for (SwirlParameterBundle p : new SwirlParameterBundle[]{parameters, harvested}) {
+            for (boolean specialized : states) {
+                for (boolean antithetic : states) {
+                    SwirlEngine reference = engine(p, 1, specialized, antithetic);
+                    for (int width : widths) {
+                        SwirlEngine blocked = engine(p, width, specialized, antithetic);
+                        if (!Arrays.deepEquals(reference.getData(0), blocked.getData(0)) ||
+                            !Arrays.equals(reference.getZeroPopulationTimes(),
+                                           blocked.getZeroPopulationTimes())) {
+                            System.out.println("Failed: width " + width + ", specialized " +
+                                               specialized + ", antithetic " + antithetic);
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+        System.out.println("Passed");
+    }
+
+    private static SwirlEngine engine(SwirlParameterBundle parameters, int width,
+                                      boolean specialized, boolean antithetic) {
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setLockstep(width);
+        engine.setSpecialized(specialized);
+        engine.setAntithetic(antithetic);
+        engine.completeTensor();
+        return engine;
+    }
+}
@@ -0,0 +1,74 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlNormalSource;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlRandom;
+import com.stochasticsystems.swirl.engine.SwirlZiggurat;
+
+import java.util.Random;
+
+public class NormalSpeedTestRun {
+    private static final int N_DRAWS   = 10000000;
+    private static final int N_REPEATS = 5;
+
+    public static void main(String... args) {
+        System.out.println("Draws (" + N_DRAWS + ", best of " + N_REPEATS + ")");
+
+        final Random random = new Random(1L);
+        long best = Long.MAX_VALUE;
+        double sink = 0;
+        for (int k = 0; k < N_REPEATS; k++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < N_DRAWS; i++) sink += random.nextGaussian();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("java.util.Random: " + best / 1000000 + "ms");
+
+        System.out.println("SwirlRandom (Box-Muller): " + time(new SwirlRandom(1L)) + "ms");
+        System.out.println("SwirlZiggurat: " + time(new SwirlZiggurat(1L)) + "ms");
+
+        //  Whole simulations, summary only
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(1000);
+        spb.setNPeriods(1000);
+        SwirlParameterBundle parameters = spb.build();
+
+        System.out.println("Simulations (" + parameters.getNRuns() + " runs of " +
+                           parameters.getNPeriods() + " periods, best of " + N_REPEATS + ")");
+        System.out.println("SwirlRandom (Box-Muller): " +
+                           time(parameters, new SwirlRandom(1L)) + "ms");
+        System.out.println("SwirlZiggurat: " + time(parameters, new SwirlZiggurat(1L)) + "ms");
+
+        if (sink == 0) System.out.println();
+    }
+
+    private static long time(SwirlNormalSource source) {
+        long best = Long.MAX_VALUE;
+        double sink = 0;
+        for (int k = 0; k < N_REPEATS; k++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < N_DRAWS; i++) sink += source.gaussian(i / 300, (i / 3) % 100, i % 3);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        if (sink == 0) System.out.println();
+        return best / 1000000;
+    }
+
+    private static long time(SwirlParameterBundle parameters, SwirlNormalSource source) {
+        long best = Long.MAX_VALUE;
+        for (int k = 0; k < N_REPEATS; k++) {
+            SwirlEngine engine = new SwirlEngine(parameters);
+            engine.setNormalSource(source);
+            engine.setKeepData(false);
+            engine.initialize();
+
+            long start = System.nanoTime();
+            engine.iterate(parameters.getNRuns());
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000;
+    }
+}
@@ -0,0 +1,134 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlNormalSource;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlRandom;
+import com.stochasticsystems.swirl.engine.SwirlSobol;
+import com.stochasticsystems.swirl.engine.SwirlZiggurat;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+public class NormalTestRun {
+    private static final int N_RUNS    = 10000;
+    private static final int N_PERIODS = 100;
+    private static final int N_INDICES = 3;
+
+    public static void main(String... args) {
+        boolean passed = true;
+
+        passed &= validate("Box-Muller", new SwirlRandom(1L), new SwirlRandom(1L));
+        passed &= validate("Ziggurat", new SwirlZiggurat(1L), new SwirlZiggurat(1L));
+        passed &= validate("Sobol", new SwirlSobol(1L, N_PERIODS, 4),
+                           new SwirlSobol(1L, N_PERIODS, 4));
+        passed &= sized();
+
+        System.out.println((passed) ? "Passed" : "Failed");
+    }
+
+    /**
+     * Checks that an engine refuses a SwirlSobol made for another number of periods, whose
+     * points would not cover every period's draws.
+     */
+    private static boolean sized() {
+        SwirlParameterBundle parameters = SwirlParameterBundle.getDefault();
+        int periods = parameters.getNPeriods();
+        boolean ok = true;
+        for (int p : new int[]{periods - 1, periods + 1}) {
+            SwirlEngine engine = new SwirlEngine(parameters, 1L);
+            engine.setNormalSource(new SwirlSobol(1L, p, 4));
+            try {
+                engine.initialize();
+                ok = false;
+            } catch (InvalidParameterException e) {
+                //  Expected
+            }
+        }
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setNormalSource(new SwirlSobol(1L, periods, 4));
+        ok &= engine.initialize();
+
+        System.out.println("Sobol dimensions checked -> " + ((ok) ? "ok" : "FAILED"));
+        return ok;
+    }
+
+    /**
+     * Checks the moments, the tails and the distribution of a source's variates against the
+     * standard normal, and that a second source on the same seed reproduces them.
+     */
+    private static boolean validate(String name, SwirlNormalSource source, SwirlNormalSource copy) {
+        int n = N_RUNS * N_PERIODS * N_INDICES;
+        double[] draws = new double[n];
+        double sum = 0, sum2 = 0, sum3 = 0, sum4 = 0, x;
+        long beyond2 = 0, beyond3 = 0, beyond4 = 0;
+        boolean reproduced = true;
+
+        for (int i = 0, k = 0; i < N_RUNS; i++) {
+            for (int t = 1; t <= N_PERIODS; t++) { // Period 0 has no EVs
+                for (int j = 0; j < N_INDICES; j++, k++) {
+                    x = source.gaussian(i, t, j);
+                    draws[k] = x;
+                    sum += x;
+                    sum2 += x*x;
+                    sum3 += x*x*x;
+                    sum4 += x*x*x*x;
+                    if (Math.abs(x) > 2) beyond2++;
+                    if (Math.abs(x) > 3) beyond3++;
+                    if (Math.abs(x) > 4) beyond4++;
+                    if (Double.doubleToLongBits(x) != Double.doubleToLongBits(copy.gaussian(i, t, j))) {
+                        reproduced = false;
+                    }
+                }
+            }
+        }
+
+        double mean = sum / n;
+        double variance = sum2 / n - mean*mean;
+        double skewness = sum3 / n;
+        double kurtosis = sum4 / n - 3;
+
+        //  Kolmogorov-Smirnov against the normal CDF
+        Arrays.sort(draws);
+        double d = 0, cdf;
+        for (int k = 0; k < n; k++) {
+            cdf = phi(draws[k]);
+            d = Math.max(d, Math.max(cdf - k / (double) n, (k+1) / (double) n - cdf));
+        }
+        double dCritical = 1.63 / Math.sqrt(n); // 1%
+
+        //  Standard errors of each estimate, allowing 4 of each
+        double se = 1 / Math.sqrt(n);
+        boolean ok = reproduced &&
+                     Math.abs(mean) < 4 * se &&
+                     Math.abs(variance - 1) < 4 * Math.sqrt(2) * se &&
+                     Math.abs(skewness) < 4 * Math.sqrt(15) * se &&
+                     Math.abs(kurtosis) < 4 * Math.sqrt(96) * se &&
+                     Math.abs(beyond2 / (double) n - 0.0455003) < 4 * Math.sqrt(0.0455003 / n) &&
+                     Math.abs(beyond3 / (double) n - 0.0026998) < 4 * Math.sqrt(0.0026998 / n) &&
+                     Math.abs(beyond4 / (double) n - 0.0000633) < 4 * Math.sqrt(0.0000633 / n) &&
+                     d < dCritical;
+
+        System.out.println(name + ": mean=" + mean + " variance=" + variance +
+                           " skewness=" + skewness + " excess kurtosis=" + kurtosis);
+        System.out.println("\t|x|>2: " + beyond2 + " |x|>3: " + beyond3 + " |x|>4: " + beyond4 +
+                           " of " + n);
+        System.out.println("\tKS D=" + d + " (1% critical " + dCritical + ") reproduced=" +
+                           reproduced + " -> " + ((ok) ? "ok" : "FAILED"));
+
+        return ok;
+    }
+
+    /**
+     * The standard normal CDF, via the complementary error function (Numerical Recipes erfcc,
+     * accurate to 1.2e-7).
+     */
+    private static double phi(double x) {
+        double z = Math.abs(x) / Math.sqrt(2);
+        double t = 1 / (1 + 0.5 * z);
+        double erfc = t * Math.exp(-z*z - 1.26551223 + t * (1.00002368 + t * (0.37409196 +
+                      t * (0.09678418 + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 +
+                      t * (1.48851587 + t * (-0.82215223 + t * 0.17087277)))))))));
+        return (x >= 0) ? 1 - 0.5 * erfc : 0.5 * erfc;
+    }
+}
@@ -0,0 +1,46 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlFactor;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlSensitivity;
+
+public class SensitivityTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(200);
+        spb.setNPeriods(50);
+        spb.setReportingInterval(5);
+        SwirlParameterBundle base = spb.build();
+
+        //  The last is the mortality of the oldest males, which should hardly matter
+        SwirlFactor[] factors = {SwirlFactor.mortality(0, 0), SwirlFactor.LITTER_SCALE,
+                                 SwirlFactor.CARRYING_CAPACITY, SwirlFactor.SD_CARRYING_CAPACITY,
+                                 SwirlFactor.RM_CORRELATION, SwirlFactor.mortality(1, 15)};
+        double[] lower = {0.3, 0.7, 1000, 200, -0.9, 0.05};
+        double[] upper = {0.7, 1.3, 4000, 1500, 0.9, 0.15};
+
+        SwirlSensitivity sensitivity = new SwirlSensitivity(base, factors, lower, upper, 64, 1L);
+        long start = System.nanoTime();
+        sensitivity.run(2L);
+        System.out.println(sensitivity.getEvaluations() + " scenarios of " + base.getNRuns() +
+                           " runs in " + (System.nanoTime() - start) / 1000000L + " ms");
+        System.out.println("Extinction variance " + sensitivity.getVariance());
+        System.out.print(sensitivity.toTable("\t"));
+
+        //  Carrying capacity drives extinction here, the oldest males' mortality cannot
+        double[] total = sensitivity.getTotal();
+        double[][] intervals = sensitivity.getTotalIntervals();
+        int last = factors.length - 1;
+        if (!(total[last] < 0.05d) || !(intervals[last][1] < intervals[2][0])) {
+            System.out.println("Failed: the oldest male mortality matters");
+            return;
+        }
+        if (!(sensitivity.getVariance() > 0.0d)) {
+            System.out.println("Failed: no variance");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -4,11 +4,14 @@ import com.stochasticsystems.swirl.engine.SwirlEngine;
 import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
 import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
 import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
-import com.sun.xml.internal.ws.api.pipe.Engine;
+import com.stochasticsystems.swirl.engine.SwirlPopulationTensor;
 
 import java.util.Arrays;
 
 public class SpeedTestRun {
+    private static final int LONG_N_RUNS    = 1000;
+    private static final int LONG_N_PERIODS = 1000;
+
     public static void main(String... args) {
         //  Run test
         //int failed = SwirlParameterBuilder.test(System.err);
@@ -34,9 +37,9 @@ public class SpeedTestRun {
 
         SwirlEngine engine = new SwirlEngine(defaults);
 
-        long[][][][] temp = engine.completeResults();
+        SwirlPopulationTensor temp = engine.completeTensor();
         if (temp == null) System.err.println("No Data?");
-        System.out.println("Data added: "+output.addData(temp));
+        System.out.println("Data added: "+output.addData(temp, 0, temp.nRuns()));
 
         System.out.println("Time taken: "+(System.currentTimeMillis()-start));
 
@@ -56,13 +59,13 @@ public class SpeedTestRun {
 
         spb.setDefaults();
 
-        spb.setNRuns(SwirlEngine.N_RUNS_MAX);
+        spb.setNRuns(LONG_N_RUNS);
 
-        if (spb.getNRuns() != SwirlEngine.N_RUNS_MAX) System.out.println("NRuns: " + spb.getNRuns());
+        if (spb.getNRuns() != LONG_N_RUNS) System.out.println("NRuns: " + spb.getNRuns());
 
-        spb.setNPeriods(SwirlEngine.N_PERIODS_MAX);
+        spb.setNPeriods(LONG_N_PERIODS);
 
-        if (spb.getNPeriods() != SwirlEngine.N_PERIODS_MAX) System.out.println("NPeriods: " + spb.getNPeriods());
+        if (spb.getNPeriods() != LONG_N_PERIODS) System.out.println("NPeriods: " + spb.getNPeriods());
 
         SwirlParameterBundle longRun = spb.build();
 
@@ -74,9 +77,9 @@ public class SpeedTestRun {
 
         SwirlEngine longEngine = new SwirlEngine(longRun);
 
-        long[][][][] longTemp = longEngine.completeResults();
+        SwirlPopulationTensor longTemp = longEngine.completeTensor();
         if (longTemp == null) System.err.println("No Data?");
-        System.out.println("Data added: "+longOutput.addData(longTemp));
+        System.out.println("Data added: "+longOutput.addData(longTemp, 0, longTemp.nRuns()));
 
         System.out.println("Time taken: "+(System.currentTimeMillis()-start));
 
@@ -102,9 +105,9 @@ public class SpeedTestRun {
 
         if (spb.getNRuns() != SwirlEngine.N_RUNS_DEFAULT/10) System.out.println("NRuns: " + spb.getNRuns());
 
-        spb.setNPeriods(SwirlEngine.N_PERIODS_MAX);
+        spb.setNPeriods(LONG_N_PERIODS);
 
-        if (spb.getNPeriods() != SwirlEngine.N_PERIODS_MAX) System.out.println("NPeriods: " + spb.getNPeriods());
+        if (spb.getNPeriods() != LONG_N_PERIODS) System.out.println("NPeriods: " + spb.getNPeriods());
 
         spb.setCarryingCapacity(SwirlEngine.CARRYING_CAPACITY_DEFAULT*2);
 
@@ -128,10 +131,10 @@ public class SpeedTestRun {
 
         SwirlEngine variableEngine = new SwirlEngine(variableRun);
 
-        long[][][][] variableTemp = variableEngine.completeResults();
+        SwirlPopulationTensor variableTemp = variableEngine.completeTensor();
         if (variableTemp == null) System.err.println("No Data?");
 
-        System.out.println("Data added: "+variableOutput.addData(variableTemp));
+        System.out.println("Data added: "+variableOutput.addData(variableTemp, 0, variableTemp.nRuns()));
 
         System.out.println("Time taken: "+(System.currentTimeMillis()-start));
 
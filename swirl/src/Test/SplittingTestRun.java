@@ -0,0 +1,61 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlAdaptiveRunner;
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlSplitting;
+
+public class SplittingTestRun {
+    public static void main(String... args) {
+        //  A harvested population that rarely declines to extinction within the periods
+        long K = 640L;
+        long[][] initial = new long[2][SwirlEngine.MAX_AGE_DEFAULT+1];
+        for (int s = 0; s < 2; s++) {
+            for (int a = 0; a < 8; a++) initial[s][a] = K / 16;
+        }
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(20000);
+        spb.setNPeriods(50);
+        spb.setCarryingCapacity(K);
+        spb.setSDCarryingCapacity(K / 20.0d);
+        spb.setInitialPopulation(initial);
+        spb.setHarvestRate(18);
+        SwirlParameterBundle parameters = spb.build();
+
+        SwirlOutputBundle output = new SwirlOutputBundle(parameters, false);
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setKeepData(false);
+        engine.setOutput(output);
+        long start = System.nanoTime();
+        engine.completeTensor();
+        long plainTime = System.nanoTime() - start;
+
+        SwirlSplitting splitting = new SwirlSplitting(parameters, 2L);
+        start = System.nanoTime();
+        splitting.run(parameters.getNRuns());
+        long splitTime = System.nanoTime() - start;
+
+        double z = SwirlAdaptiveRunner.Z_95;
+        double plain = output.getExtinctionPercent(), split = splitting.getProbability();
+        double plainHW = output.getExtinctionHalfWidth(z), splitHW = splitting.getHalfWidth(z);
+        System.out.printf("Plain runs:\t%.5f +- %.5f\t%d runs\t%d ms%n", plain, plainHW,
+                          output.getCompleteRuns(), plainTime / 1000000L);
+        System.out.printf("Splitting:\t%.5f +- %.5f\t%d trajectories\t%d ms%n", split, splitHW,
+                          splitting.getTrajectories(), splitTime / 1000000L);
+        System.out.printf("Speed-up in periods executed: %.1f%n", splitting.getSpeedup());
+
+        //  Both are unbiased, so they must agree within their combined error
+        if (Math.abs(plain - split) > 1.5d * Math.sqrt(plainHW*plainHW + splitHW*splitHW)) {
+            System.out.println("Failed: estimates disagree");
+            return;
+        }
+        if (!(splitHW < plainHW)) {
+            System.out.println("Failed: splitting is less precise");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -0,0 +1,98 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlPopulationTensor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class StorageTestRun {
+    public static void main(String... args) throws IOException {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(250);
+        SwirlParameterBundle parameters = spb.build();
+        int I = parameters.getNRuns();
+
+        //  One seed under every storage
+        SwirlEngine reference = engine(parameters, SwirlPopulationTensor.Storage.HEAP, null);
+        long[][][][] expected = reference.getData(0);
+        File directory = Files.createTempDirectory("SwirlStorage").toFile();
+        File file = new File(directory, "data.bin");
+        SwirlEngine[] engines = {
+                reference,
+                engine(parameters, SwirlPopulationTensor.Storage.OFF_HEAP, null),
+                engine(parameters, SwirlPopulationTensor.Storage.MAPPED, null),
+                engine(parameters, SwirlPopulationTensor.Storage.MAPPED, file)
+        };
+        for (SwirlEngine engine : engines) {
+            SwirlPopulationTensor tensor = engine.getDataTensor(0, I);
+            System.out.println(tensor.getStorage() + ": " + tensor.getFile());
+            if (tensor.getStorage() != engine.getStorage() ||
+                !Arrays.deepEquals(expected, engine.getData(0)) ||
+                !Arrays.deepEquals(expected, tensor.toArray()) ||
+                !Arrays.deepEquals(Arrays.copyOfRange(expected, 17, 203),
+                                   engine.getData(17, 203)) ||
+                !Arrays.deepEquals(Arrays.copyOfRange(expected, 17, 203),
+                                   engine.getDataTensor(17, 203).toArray()) ||
+                !Arrays.deepEquals(expected[I-1], engine.getRun(I-1))) {
+                System.out.println("Failed: " + engine.getStorage() + " data differs");
+                return;
+            }
+        }
+
+        //  A temporary mapping leaves no file, a given one is left to its owner
+        File temp = engines[2].getDataTensor(0, I).getFile();
+        if (temp == null || temp.exists() ||
+            file.length() != 8L * I * reference.getDataTensor(0, I).getRunStride()) {
+            System.out.println("Failed: mapped files");
+            return;
+        }
+
+        //  Tensors spanning several buffers, with runs 0-39, 40-79, ... in each
+        SwirlPopulationTensor heap = reference.getDataTensor(0, I);
+        int stride = heap.getRunStride();
+        File chunked = new File(directory, "chunked.bin");
+        SwirlPopulationTensor[] tensors = {
+                new SwirlPopulationTensor(I, heap.nPeriods(), heap.nGenders(), heap.nAges(), null,
+                                          40 * stride + 1) {},
+                new SwirlPopulationTensor(I, heap.nPeriods(), heap.nGenders(), heap.nAges(),
+                                          chunked, 40 * stride + 1) {}
+        };
+        for (SwirlPopulationTensor tensor : tensors) {
+            SwirlPopulationTensor.copyRuns(heap, 0, tensor, 0, I);
+            SwirlPopulationTensor back = SwirlPopulationTensor.create(
+                    SwirlPopulationTensor.Storage.HEAP, null, I, heap.nPeriods(), heap.nGenders(),
+                    heap.nAges());
+            SwirlPopulationTensor.copyRuns(tensor, 35, back, 35, I - 35);
+            if (!Arrays.deepEquals(expected, tensor.toArray()) ||
+                !Arrays.deepEquals(Arrays.copyOfRange(expected, 35, 125),
+                                   tensor.view(35, 125).toArray()) ||
+                !Arrays.deepEquals(expected[80], tensor.view(79, 81).getRun(1)) ||
+                tensor.get(I-1, 100, 1, 3) != expected[I-1][100][1][3] ||
+                !Arrays.deepEquals(Arrays.copyOfRange(expected, 35, I),
+                                   back.toArray(35, I))) {
+                System.out.println("Failed: " + tensor.getStorage() + " chunks differ");
+                return;
+            }
+        }
+
+        if (!file.delete() || !chunked.delete() || !directory.delete()) {
+            System.out.println("Failed: files left");
+            return;
+        }
+        System.out.println("Passed");
+    }
+
+    private static SwirlEngine engine(SwirlParameterBundle parameters,
+                                      SwirlPopulationTensor.Storage storage, File file) {
+        SwirlEngine engine = new SwirlEngine(parameters, 1L);
+        engine.setStorage(storage, file);
+        engine.completeTensor();
+        return engine;
+    }
+}
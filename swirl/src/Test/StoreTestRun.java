@@ -0,0 +1,155 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlNormalSource;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlRandom;
+import com.stochasticsystems.swirl.engine.SwirlResultStore;
+import com.stochasticsystems.swirl.engine.SwirlZiggurat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class StoreTestRun {
+    public static void main(String... args) throws IOException {
+        File directory = Files.createTempDirectory("SwirlStore").toFile();
+        SwirlParameterBundle defaults = SwirlParameterBundle.getDefault();
+
+        String key = SwirlResultStore.key(defaults, 1L, defaults.getNRuns());
+        System.out.println("Key: " + key);
+        if (!key.equals(SwirlResultStore.key(new SwirlParameterBundle(defaults), 1L,
+                                             defaults.getNRuns())) ||
+            key.equals(SwirlResultStore.key(defaults, 2L, defaults.getNRuns())) ||
+            key.equals(SwirlResultStore.key(defaults, 1L, defaults.getNRuns() - 1))) {
+            System.out.println("Failed: keys");
+            return;
+        }
+
+        SwirlResultStore store = new SwirlResultStore(directory);
+        long start = System.nanoTime();
+        SwirlOutputBundle first = store.getOrRun(defaults, 1L);
+        long missTime = System.nanoTime() - start;
+
+        //  A restarted worker reuses the result
+        SwirlResultStore reopened = new SwirlResultStore(directory);
+        start = System.nanoTime();
+        SwirlOutputBundle second = reopened.getOrRun(new SwirlParameterBundle(defaults), 1L);
+        long hitTime = System.nanoTime() - start;
+        System.out.println("Miss: " + missTime / 1000L + " us, hit: " + hitTime / 1000L + " us, " +
+                           reopened.size() + " stored, " + reopened.getBytes() + " bytes");
+
+        if (reopened.size() != 1 ||
+            !Arrays.equals(first.getSummaryMeans(), second.getSummaryMeans()) ||
+            !Arrays.deepEquals(first.getPopulationSTDs(), second.getPopulationSTDs()) ||
+            first.getExtinctionPercent() != second.getExtinctionPercent() ||
+            first.getCompleteRuns() != second.getCompleteRuns() || !second.isFinal()) {
+            System.out.println("Failed: stored result differs");
+            return;
+        }
+        if (reopened.get(defaults, 2L, defaults.getNRuns()) != null) {
+            System.out.println("Failed: another seed hit");
+            return;
+        }
+
+        //  Other draws are stored apart from the default ones
+        SwirlEngine antithetic = new SwirlEngine(defaults, 1L);
+        antithetic.setAntithetic(true);
+        SwirlEngine random = new SwirlEngine(defaults, 1L);
+        random.setNormalSource(new SwirlRandom(1L));
+        SwirlEngine ziggurat = new SwirlEngine(defaults, 1L);
+        ziggurat.setNormalSource(new SwirlZiggurat(1L));
+        if (reopened.get(antithetic, defaults.getNRuns()) != null ||
+            reopened.get(random, defaults.getNRuns()) != null ||
+            reopened.get(ziggurat, defaults.getNRuns()) == null ||
+            SwirlResultStore.key(antithetic, defaults.getNRuns()).equals(key)) {
+            System.out.println("Failed: other draws hit");
+            return;
+        }
+        SwirlOutputBundle paired = reopened.getOrRun(antithetic);
+        antithetic = new SwirlEngine(defaults, 1L);
+        antithetic.setAntithetic(true);
+        if (reopened.size() != 2 || reopened.get(antithetic, defaults.getNRuns()) == null ||
+            Arrays.equals(paired.getSummaryMeans(), first.getSummaryMeans())) {
+            System.out.println("Failed: other draws stored");
+            return;
+        }
+        new File(directory, SwirlResultStore.key(antithetic, defaults.getNRuns()) +
+                            SwirlResultStore.EXTENSION).delete();
+        reopened = new SwirlResultStore(directory);
+
+        //  A source of the caller's own cannot be identified, so it is never stored
+        final SwirlZiggurat draws = new SwirlZiggurat(1L);
+        SwirlEngine custom = new SwirlEngine(defaults, 1L);
+        custom.setNormalSource(new SwirlNormalSource() {
+            @Override
+            public double gaussian(int run, int period, int index) {
+                return draws.gaussian(run, period, index);
+            }
+        });
+        SwirlOutputBundle own = reopened.getOrRun(custom);
+        if (SwirlResultStore.key(custom, defaults.getNRuns()) != null ||
+            reopened.get(custom, defaults.getNRuns()) != null || reopened.size() != 1 ||
+            !Arrays.equals(own.getSummaryMeans(), first.getSummaryMeans())) {
+            System.out.println("Failed: custom source");
+            return;
+        }
+
+        //  A damaged file is treated as missing
+        File file = new File(directory, key + SwirlResultStore.EXTENSION);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() / 2);
+        int b = raf.read();
+        raf.seek(raf.length() / 2);
+        raf.write(b ^ 0x01);
+        raf.close();
+        if (reopened.get(defaults, 1L, defaults.getNRuns()) != null) {
+            System.out.println("Failed: damaged file read");
+            return;
+        }
+        reopened.getOrRun(defaults, 1L); // Rewritten
+
+        //  The least recently used are collected beyond the size, and all beyond the age
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(10);
+        SwirlParameterBundle[] presets = new SwirlParameterBundle[4];
+        for (int h = 0; h < presets.length; h++) {
+            spb.setHarvestRate(10 * h);
+            presets[h] = spb.build();
+            reopened.getOrRun(presets[h], 1L);
+            new File(directory, SwirlResultStore.key(presets[h], 1L, 10) +
+                                SwirlResultStore.EXTENSION)
+                    .setLastModified(System.currentTimeMillis() - (presets.length - h) * 60000L);
+        }
+        reopened = new SwirlResultStore(directory); // Index the times set above
+        long bytes = reopened.getBytes() / reopened.size();
+        int deleted = reopened.collect(Long.MAX_VALUE, 3 * bytes);
+        System.out.println(deleted + " collected by size, " + reopened.size() + " left");
+        if (deleted != 2 || reopened.getBytes() > 3 * bytes ||
+            reopened.contains(presets[0], 1L, 10) || reopened.contains(presets[1], 1L, 10) ||
+            !reopened.contains(presets[2], 1L, 10) ||
+            !reopened.contains(defaults, 1L, defaults.getNRuns())) {
+            System.out.println("Failed: collection by size");
+            return;
+        }
+        deleted = reopened.collect(30000L, Long.MAX_VALUE);
+        System.out.println(deleted + " collected by age, " + reopened.size() + " left");
+        if (deleted != 2 || reopened.size() != 1 ||
+            !reopened.contains(defaults, 1L, defaults.getNRuns())) {
+            System.out.println("Failed: collection by age");
+            return;
+        }
+
+        reopened.clear();
+        if (!directory.delete()) {
+            System.out.println("Failed: files left");
+            return;
+        }
+        System.out.println("Passed");
+    }
+}
@@ -0,0 +1,68 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlFactor;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+import com.stochasticsystems.swirl.engine.SwirlSweep;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+public class SweepTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(2000);
+        SwirlParameterBundle base = spb.build();
+
+        SwirlFactor[] factors = {SwirlFactor.HARVEST_RATE, SwirlFactor.CARRYING_CAPACITY,
+                                 SwirlFactor.MORTALITY_SCALE};
+        SwirlSweep grid = SwirlSweep.grid(base, factors, new double[][]{{0, 50, 100},
+                                                                        {2000, 4000},
+                                                                        {0.9, 1.0, 1.1}});
+
+        long start = System.nanoTime();
+        SwirlOutputBundle[] serial = grid.run(1L, null);
+        long serialTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        SwirlOutputBundle[] pooled = grid.run(1L, ForkJoinPool.commonPool());
+        long pooledTime = System.nanoTime() - start;
+
+        System.out.print(grid.toTable("\t"));
+        System.out.println("Serial: " + serialTime / 1000000L + " ms, pooled: " +
+                           pooledTime / 1000000L + " ms, " +
+                           (ForkJoinPool.commonPool().getParallelism()) + " workers");
+
+        for (int k = 0; k < grid.nScenarios(); k++) {
+            if (serial[k] == null || pooled[k] == null) {
+                System.out.println("Failed: scenario " + k + " invalid");
+                return;
+            }
+            if (!Arrays.equals(serial[k].getSummaryMeans(), pooled[k].getSummaryMeans())) {
+                System.out.println("Failed: scenario " + k + " depends on the pool");
+                return;
+            }
+        }
+
+        //  Every stratum of every factor is sampled once
+        int n = 20;
+        SwirlSweep lhs = SwirlSweep.latinHypercube(base, factors, new double[]{0, 2000, 0.9},
+                                                   new double[]{100, 6000, 1.1}, n, 2L);
+        for (int j = 0; j < factors.length; j++) {
+            boolean[] seen = new boolean[n];
+            double lower = new double[]{0, 2000, 0.9}[j], upper = new double[]{100, 6000, 1.1}[j];
+            for (int k = 0; k < n; k++) {
+                seen[(int) ((lhs.getPoint(k)[j] - lower) / (upper - lower) * n)] = true;
+            }
+            for (boolean b : seen) {
+                if (!b) {
+                    System.out.println("Failed: " + factors[j] + " stratum missed");
+                    return;
+                }
+            }
+        }
+        System.out.println("Passed");
+    }
+}
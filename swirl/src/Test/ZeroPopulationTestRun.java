@@ -0,0 +1,62 @@
+package Test;
+
+import com.stochasticsystems.swirl.engine.SwirlEngine;
+import com.stochasticsystems.swirl.engine.SwirlOutputBundle;
+import com.stochasticsystems.swirl.engine.SwirlParameterBuilder;
+import com.stochasticsystems.swirl.engine.SwirlParameterBundle;
+
+public class ZeroPopulationTestRun {
+    public static void main(String... args) {
+        SwirlParameterBuilder spb = new SwirlParameterBuilder();
+        spb.setDefaults();
+        spb.setNRuns(500);
+        spb.setHarvestRate(40); // Many runs die out
+        SwirlParameterBundle harvested = spb.build();
+        spb.setSupplementRate(2); // Some come back
+        SwirlParameterBundle supplemented = spb.build();
+
+        for (SwirlParameterBundle parameters : new SwirlParameterBundle[]{harvested,
+                                                                          supplemented}) {
+            for (int width : new int[]{1, 8}) {
+                SwirlOutputBundle output = new SwirlOutputBundle(parameters, true);
+                SwirlEngine engine = new SwirlEngine(parameters, 1L);
+                engine.setLockstep(width);
+                engine.setOutput(output);
+                long[][][][] data = engine.completeTensor().toArray();
+                int[] times = engine.getZeroPopulationTimes();
+                int T = data[0].length, zero = 0;
+
+                //  The first period from which every later period stored is empty
+                for (int i = 0; i < data.length; i++) {
+                    int expected = -1;
+                    for (int t = T-1; t >= 0 && total(data[i][t]) == 0; t--) expected = t;
+                    if (times[i] != expected || engine.getZeroPopulationTime(i) != expected) {
+                        System.out.println("Failed: run " + i + " zero from " + times[i] +
+                                           ", stored data from " + expected);
+                        return;
+                    }
+                    if (expected >= 0) zero++;
+                }
+
+                //  The curve counts no population, the percent no reproduction of a gender
+                double[] curve = output.getZeroPopulationCurve();
+                System.out.println("Supplement " + parameters.getSupplementRate() + ", width " +
+                                   width + ": " + zero + " zero, curve " + curve[T-1] +
+                                   ", extinct " + output.getExtinctionPercent());
+                if (zero == 0 || (parameters == harvested &&
+                                  curve[T-1] != zero / (double) data.length) ||
+                    curve[T-1] > output.getExtinctionPercent()) {
+                    System.out.println("Failed: zero population curve");
+                    return;
+                }
+            }
+        }
+        System.out.println("Passed");
+    }
+
+    private static long total(long[][] population) {
+        long n = 0;
+        for (long[] gender : population) for (long k : gender) n += k;
+        return n;
+    }
+}
@@ -0,0 +1,305 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Accumulates the sums behind SwirlOutputBundle's statistics one period at a time, so runs can
+ * be summarized as they execute and then discarded.
+ * <p>
+ * Not thread safe, each thread uses its own and merges it into the bundle when done. The sums
+ * are exact, so the merged totals do not depend on how runs were split between accumulators.
+ * Each period is summarized on its own, so runs may interleave their periods.
+ * <p>
+ * Created by Allan Stewart on 2018-04-01.
+ */
+class SwirlAccumulator implements SwirlPeriodListener {
+    final int T, S, A;
+    final int R; // Replicates, run i belongs to replicate i % R
+    private final int[] mRAges;
+
+    final long[][][] mPopulationSums; // t, s, a
+    final long[][][] mPopulationSquares; // t, s, a
+    final long[][]   mGSummarySums; // t, s
+    final long[][]   mGSummarySquares; // t, s
+    final long[][]   mRSummarySums; // t, s
+    final long[][]   mRSummarySquares; // t, s
+    final long[]     mSummarySums; // t
+    final long[]     mSummarySquares; // t
+    final long[]     mZeroCounts; // Runs with no population, t
+    final long[]     mPairSums; // Totals of antithetic pairs, runs 2j and 2j+1, t
+    final long[]     mPairSquares; // t
+    final long[]     mPairCounts; // t
+    private final long[] mPending; // Total of the even run awaiting its pair, t
+    private final int[]  mPendingRuns; // Which even run, or -1, t
+    final long[][]   mReplicateSums; // Totals of each replicate's runs, r, t
+    final long[]     mReplicateRuns; // r
+    int              mNRuns;
+    int              mNExtinct;
+
+    SwirlAccumulator(SwirlParameterBundle parameters) {
+        this(parameters, 1);
+    }
+
+    /**
+     * @param parameters The parameters of the runs
+     * @param replicates The number of replicates runs are dealt to, see SwirlSobol
+     */
+    SwirlAccumulator(SwirlParameterBundle parameters, int replicates) {
+        R = replicates;
+        T = parameters.getNPeriods()+1;
+        S = parameters.nGenders();
+        A = parameters.getMaxAge()+1;
+        mRAges = parameters.getReproductionAge();
+
+        mPopulationSums = new long[T][S][A];
+        mPopulationSquares = new long[T][S][A];
+        mGSummarySums = new long[T][S];
+        mGSummarySquares = new long[T][S];
+        mRSummarySums = new long[T][S];
+        mRSummarySquares = new long[T][S];
+        mSummarySums = new long[T];
+        mSummarySquares = new long[T];
+        mZeroCounts = new long[T];
+        mPairSums = new long[T];
+        mPairSquares = new long[T];
+        mPairCounts = new long[T];
+        mPending = new long[T];
+        mPendingRuns = new int[T];
+        Arrays.fill(mPendingRuns, -1);
+        mReplicateSums = new long[R][T];
+        mReplicateRuns = new long[R];
+    }
+
+    @Override
+    public void onPeriod(int i, int t, long[] population, int offset) {
+        long[][] pSums = mPopulationSums[t], pSquares = mPopulationSquares[t];
+        long[] gSums = mGSummarySums[t], gSquares = mGSummarySquares[t];
+        long[] rSums = mRSummarySums[t], rSquares = mRSummarySquares[t];
+        long sum = 0;
+        long temp;
+        boolean extinct = false;
+
+        //  Summaries are squared per run, so their deviations are between runs
+        for (int s = 0; s < S; s++) {
+            long gSum = 0, rSum = 0;
+            int rAge = mRAges[s];
+            for (int a = 0; a < A; a++) {
+                temp = population[offset++];
+                pSums[s][a] += temp;
+                pSquares[s][a] += temp*temp;
+                gSum += temp;
+                if (a >= rAge) rSum += temp;
+            }
+            gSums[s] += gSum;
+            gSquares[s] += gSum*gSum;
+            rSums[s] += rSum;
+            rSquares[s] += rSum*rSum;
+            sum += gSum;
+            extinct |= rSum == 0;
+        }
+
+        mSummarySums[t] += sum;
+        mSummarySquares[t] += sum*sum;
+        mReplicateSums[i % R][t] += sum;
+        pair(i, t, sum);
+        if (sum == 0) mZeroCounts[t]++;
+        if (t == T-1 && extinct) mNExtinct++; // No reproductive population of some gender
+    }
+
+    /**
+     * Equivalent to onPeriod for each period from to the end with no population.
+     *
+     * @param i    The run index
+     * @param from The first period
+     */
+    void onZeroPeriods(int i, int from) {
+        for (int t = from; t < T; t++) {
+            mZeroCounts[t]++;
+            pair(i, t, 0L);
+        }
+        if (from < T) mNExtinct++;
+    }
+
+    /**
+     * Holds an even run's total until its odd pair arrives at the same period. A pair only
+     * counts when both runs are seen by this accumulator.
+     *
+     * @param i   The run index
+     * @param t   The period
+     * @param sum The run's total population
+     */
+    private void pair(int i, int t, long sum) {
+        if ((i & 1) == 0) {
+            mPending[t] = sum;
+            mPendingRuns[t] = i;
+        } else if (mPendingRuns[t] == i-1) {
+            long pair = mPending[t] + sum;
+            mPairSums[t] += pair;
+            mPairSquares[t] += pair*pair;
+            mPairCounts[t]++;
+            mPendingRuns[t] = -1;
+        }
+    }
+
+    @Override
+    public void onRunComplete(int i) {
+        mNRuns++;
+        mReplicateRuns[i % R]++;
+    }
+
+    /**
+     * Adds runs first to last, exclusive, each a copy of the single run another accumulator
+     * summarizes, as if each were executed: they are dealt to the replicates by index, and
+     * runs 2j and 2j+1 in the range pair up.
+     *
+     * @param run   The accumulator of the run, unchanged
+     * @param first The first run
+     * @param last  The run after the last
+     */
+    void addCopies(SwirlAccumulator run, int first, int last) {
+        long n = last - first;
+        long pairs = Math.max(0, (last - (first + (first & 1))) / 2);
+        for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                for (int a = 0; a < A; a++) {
+                    mPopulationSums[t][s][a] += n * run.mPopulationSums[t][s][a];
+                    mPopulationSquares[t][s][a] += n * run.mPopulationSquares[t][s][a];
+                }
+                mGSummarySums[t][s] += n * run.mGSummarySums[t][s];
+                mGSummarySquares[t][s] += n * run.mGSummarySquares[t][s];
+                mRSummarySums[t][s] += n * run.mRSummarySums[t][s];
+                mRSummarySquares[t][s] += n * run.mRSummarySquares[t][s];
+            }
+            long sum = run.mSummarySums[t];
+            mSummarySums[t] += n * sum;
+            mSummarySquares[t] += n * run.mSummarySquares[t];
+            mZeroCounts[t] += n * run.mZeroCounts[t];
+            mPairSums[t] += pairs * 2 * sum;
+            mPairSquares[t] += pairs * 4 * sum * sum;
+            mPairCounts[t] += pairs;
+        }
+        for (int r = 0; r < R; r++) {
+            //  Runs i in the range with i % R == r
+            long copies = (last - r + R - 1) / R - (first - r + R - 1) / R;
+            for (int t = 0; t < T; t++) mReplicateSums[r][t] += copies * run.mSummarySums[t];
+            mReplicateRuns[r] += copies;
+        }
+        mNRuns += n;
+        mNExtinct += n * run.mNExtinct;
+    }
+
+    /**
+     * Resets every sum to zero.
+     */
+    void clear() {
+        for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                Arrays.fill(mPopulationSums[t][s], 0L);
+                Arrays.fill(mPopulationSquares[t][s], 0L);
+            }
+            Arrays.fill(mGSummarySums[t], 0L);
+            Arrays.fill(mGSummarySquares[t], 0L);
+            Arrays.fill(mRSummarySums[t], 0L);
+            Arrays.fill(mRSummarySquares[t], 0L);
+        }
+        Arrays.fill(mSummarySums, 0L);
+        Arrays.fill(mSummarySquares, 0L);
+        Arrays.fill(mZeroCounts, 0L);
+        Arrays.fill(mPairSums, 0L);
+        Arrays.fill(mPairSquares, 0L);
+        Arrays.fill(mPairCounts, 0L);
+        Arrays.fill(mPendingRuns, -1);
+        for (long[] sums : mReplicateSums) Arrays.fill(sums, 0L);
+        Arrays.fill(mReplicateRuns, 0L);
+        mNRuns = 0;
+        mNExtinct = 0;
+    }
+
+    /**
+     * Writes the dimensions and sums, without any runs awaiting their antithetic pair, see
+     * read. The run counts, mNRuns and mNExtinct, are left to the caller, whose format places
+     * them.
+     *
+     * @param out The output
+     *
+     * @throws IOException If it cannot be written
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(T);
+        out.writeInt(S);
+        out.writeInt(A);
+        out.writeInt(R);
+        for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                writeLongs(out, mPopulationSums[t][s]);
+                writeLongs(out, mPopulationSquares[t][s]);
+            }
+            writeLongs(out, mGSummarySums[t]);
+            writeLongs(out, mGSummarySquares[t]);
+            writeLongs(out, mRSummarySums[t]);
+            writeLongs(out, mRSummarySquares[t]);
+        }
+        writeLongs(out, mSummarySums);
+        writeLongs(out, mSummarySquares);
+        writeLongs(out, mZeroCounts);
+        writeLongs(out, mPairSums);
+        writeLongs(out, mPairSquares);
+        writeLongs(out, mPairCounts);
+        for (long[] sums : mReplicateSums) writeLongs(out, sums);
+        writeLongs(out, mReplicateRuns);
+    }
+
+    /**
+     * Reads sums written by write, with the run counts zero for the caller to read.
+     *
+     * @param in         The input
+     * @param parameters The parameters of the runs, which fix the dimensions
+     * @param maxBytes   The most the input may hold, bounding what is allocated
+     *
+     * @return The sums
+     *
+     * @throws IOException If they cannot be read, or do not match the parameters
+     */
+    static SwirlAccumulator read(DataInput in, SwirlParameterBundle parameters, long maxBytes)
+            throws IOException {
+        int T = in.readInt(), S = in.readInt(), A = in.readInt(), R = in.readInt();
+        if (T != parameters.getNPeriods()+1 || S != parameters.nGenders() ||
+            A != parameters.getMaxAge()+1 || R < 1 || 8L * R * T > maxBytes) {
+            throw new IOException("Invalid dimensions");
+        }
+
+        SwirlAccumulator sums = new SwirlAccumulator(parameters, R);
+        for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                readLongs(in, sums.mPopulationSums[t][s]);
+                readLongs(in, sums.mPopulationSquares[t][s]);
+            }
+            readLongs(in, sums.mGSummarySums[t]);
+            readLongs(in, sums.mGSummarySquares[t]);
+            readLongs(in, sums.mRSummarySums[t]);
+            readLongs(in, sums.mRSummarySquares[t]);
+        }
+        readLongs(in, sums.mSummarySums);
+        readLongs(in, sums.mSummarySquares);
+        readLongs(in, sums.mZeroCounts);
+        readLongs(in, sums.mPairSums);
+        readLongs(in, sums.mPairSquares);
+        readLongs(in, sums.mPairCounts);
+        for (long[] replicate : sums.mReplicateSums) readLongs(in, replicate);
+        readLongs(in, sums.mReplicateRuns);
+        return sums;
+    }
+
+    private static void writeLongs(DataOutput out, long[] values) throws IOException {
+        out.writeInt(values.length);
+        for (long value : values) out.writeLong(value);
+    }
+
+    private static void readLongs(DataInput in, long[] values) throws IOException {
+        if (in.readInt() != values.length) throw new IOException("Invalid length");
+        for (int j = 0; j < values.length; j++) values[j] = in.readLong();
+    }
+}
@@ -0,0 +1,255 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Executes runs in batches until the extinction probability and the final period mean are
+ * known to within the requested confidence interval half-widths, or a budget is spent.
+ * <p>
+ * The parameters' number of runs is the run budget, so it may be as large as N_RUNS_MAX
+ * without those runs being executed. Only statistics are kept, so memory use does not depend
+ * on the budget. The engine can be configured through getEngine() before running.
+ * <p>
+ * Created by Allan Stewart on 2018-04-08.
+ */
+public class SwirlAdaptiveRunner {
+    public static final String TAG = "SwirlAdaptiveRunner";
+
+    /**
+     * Why running stopped.
+     */
+    public enum Stop {
+        CONVERGED, RUN_LIMIT, TIME_LIMIT
+    }
+
+    //  Standard normal quantile of a 95% interval
+    public final static double Z_95 = 1.959963984540054d;
+
+    public final static int    BATCH_SIZE_DEFAULT            = 1000;
+    public final static int    MIN_RUNS_DEFAULT              = 100;
+    public final static double EXTINCTION_HALF_WIDTH_DEFAULT = 0.01d;
+
+    private final SwirlParameterBundle mParameters;
+    private final SwirlEngine          mEngine;
+    private final SwirlOutputBundle    mOutput;
+
+    private double mZ = Z_95;
+    private double mExtinctionHalfWidth = EXTINCTION_HALF_WIDTH_DEFAULT;
+    private double mMeanHalfWidth = Double.POSITIVE_INFINITY; // Population units, off by default
+    private int    mBatchSize = BATCH_SIZE_DEFAULT;
+    private int    mMinRuns = MIN_RUNS_DEFAULT;
+    private long   mTimeLimit = 0L; // Milliseconds, unlimited when 0
+
+    private Stop   mStop = null;
+    private long   mElapsed = 0L; // Nanoseconds
+
+    /**
+     * Creates a runner seeded from the clock.
+     *
+     * @param parameters The parameters, their number of runs is the run budget
+     */
+    public SwirlAdaptiveRunner(SwirlParameterBundle parameters) {
+        this(parameters, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates a runner. Runners with the same parameters, seed and settings stop after the
+     * same runs, unless stopped by the time limit.
+     *
+     * @param parameters The parameters, their number of runs is the run budget
+     * @param seed       The engine seed
+     */
+    public SwirlAdaptiveRunner(SwirlParameterBundle parameters, long seed) {
+        mEngine = new SwirlEngine(parameters, seed); // Validates the parameters
+        mParameters = parameters;
+        mOutput = new SwirlOutputBundle(parameters, false);
+        mEngine.setKeepData(false);
+        mEngine.setOutput(mOutput);
+    }
+
+    /**
+     * Executes batches until converged or a budget is spent. May be called again after a
+     * TIME_LIMIT stop to continue.
+     *
+     * @return The statistics of the runs executed
+     */
+    public SwirlOutputBundle run() {
+        if (!mEngine.isInitialized()) mEngine.initialize();
+
+        long start = System.nanoTime() - mElapsed;
+        long limit = mTimeLimit * 1000000L;
+        mStop = null;
+
+        while (mEngine.iterationsLeft() > 0) {
+            int n = Math.min(mBatchSize, mEngine.iterationsLeft());
+            if (mOutput.getCompleteRuns() < mMinRuns) {
+                n = Math.max(n, Math.min(mMinRuns - mOutput.getCompleteRuns(),
+                                         mEngine.iterationsLeft()));
+            }
+            if (mEngine.isAntithetic() && (n & 1) == 1 && n < mEngine.iterationsLeft()) {
+                n++; // Keep pairs within a batch
+            }
+            mEngine.iterate(n);
+            mElapsed = System.nanoTime() - start;
+
+            if (isConverged()) {
+                mStop = Stop.CONVERGED;
+                break;
+            }
+            if (limit > 0L && mElapsed >= limit) {
+                mStop = Stop.TIME_LIMIT;
+                break;
+            }
+        }
+        if (mStop == null) mStop = (isConverged()) ? Stop.CONVERGED : Stop.RUN_LIMIT;
+
+        return mOutput;
+    }
+
+    /**
+     * Whether both half-widths are within their targets. Runs with deterministic parameters
+     * are identical, so their intervals are closed after the first. The mean is estimated
+     * from the replicates of a SwirlSobol source, or from pairs when the engine is
+     * antithetic.
+     *
+     * @return Whether enough runs have been executed
+     */
+    public boolean isConverged() {
+        int n = mOutput.getCompleteRuns();
+        if (n > 0 && mParameters.isDeterministic()) return true;
+        if (n < mMinRuns) return false;
+
+        int t = mParameters.getNPeriods();
+        double meanHalfWidth = (mOutput.getReplicates() > 1) ?
+                               mOutput.getReplicateSummaryHalfWidth(t, mZ) :
+                               (mEngine.isAntithetic()) ?
+                               mOutput.getPairedSummaryHalfWidth(t, mZ) :
+                               mOutput.getSummaryHalfWidth(t, mZ);
+
+        return mOutput.getExtinctionHalfWidth(mZ) <= mExtinctionHalfWidth &&
+               meanHalfWidth <= mMeanHalfWidth;
+    }
+
+    //  Getters & Setters
+
+    /**
+     * @return The engine, which may be configured before running
+     */
+    public SwirlEngine getEngine() {
+        return mEngine;
+    }
+
+    /**
+     * @return The statistics of the runs executed so far
+     */
+    public SwirlOutputBundle getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * @return Why the last run() stopped, or null if it has not been called
+     */
+    public Stop getStop() {
+        return mStop;
+    }
+
+    /**
+     * @return The number of runs executed
+     */
+    public int getRuns() {
+        return mOutput.getCompleteRuns();
+    }
+
+    /**
+     * @return The time spent running, in milliseconds
+     */
+    public long getElapsed() {
+        return mElapsed / 1000000L;
+    }
+
+    public double getZ() {
+        return mZ;
+    }
+
+    /**
+     * @param z The standard normal quantile of the confidence, Z_95 by default
+     */
+    public void setZ(double z) {
+        if (!(z > 0.0d) || Double.isInfinite(z)) {
+            throw new InvalidParameterException("Invalid quantile: " + z);
+        }
+        mZ = z;
+    }
+
+    public double getExtinctionHalfWidth() {
+        return mExtinctionHalfWidth;
+    }
+
+    /**
+     * @param halfWidth The target half-width of the extinction probability, infinity to
+     *                  ignore it
+     */
+    public void setExtinctionHalfWidth(double halfWidth) {
+        if (!(halfWidth > 0.0d)) {
+            throw new InvalidParameterException("Invalid half-width: " + halfWidth);
+        }
+        mExtinctionHalfWidth = halfWidth;
+    }
+
+    public double getMeanHalfWidth() {
+        return mMeanHalfWidth;
+    }
+
+    /**
+     * @param halfWidth The target half-width of the final period mean total population, in
+     *                  individuals, infinity to ignore it, the default
+     */
+    public void setMeanHalfWidth(double halfWidth) {
+        if (!(halfWidth > 0.0d)) {
+            throw new InvalidParameterException("Invalid half-width: " + halfWidth);
+        }
+        mMeanHalfWidth = halfWidth;
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * @param batchSize The runs executed between checks
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Invalid batch size: " + batchSize);
+        }
+        mBatchSize = batchSize;
+    }
+
+    public int getMinRuns() {
+        return mMinRuns;
+    }
+
+    /**
+     * @param minRuns The runs executed before the intervals are trusted
+     */
+    public void setMinRuns(int minRuns) {
+        if (minRuns < 2) {
+            throw new InvalidParameterException("Invalid minimum: " + minRuns);
+        }
+        mMinRuns = minRuns;
+    }
+
+    public long getTimeLimit() {
+        return mTimeLimit;
+    }
+
+    /**
+     * @param timeLimit The time budget in milliseconds, checked between batches, 0 for none
+     */
+    public void setTimeLimit(long timeLimit) {
+        if (timeLimit < 0L) {
+            throw new InvalidParameterException("Invalid time limit: " + timeLimit);
+        }
+        mTimeLimit = timeLimit;
+    }
+}
@@ -0,0 +1,184 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes simulations off the calling thread. Each submission returns a future of its
+ * statistics, reports progress after every batch of runs, and stops at the next batch when the
+ * future is cancelled, so a UI or request thread never waits on a simulation.
+ * <p>
+ * Engines are driven by one executor thread each and only summarize, as SwirlAdaptiveRunner.
+ * A submitted engine must not be used elsewhere until its future is done.
+ * <p>
+ * Created by Allan Stewart on 2018-05-06.
+ */
+public class SwirlAsyncRunner {
+    public static final String TAG = "SwirlAsyncRunner";
+
+    /**
+     * Receives progress on the executing thread, between batches. The output is not being
+     * written to while it is called.
+     */
+    public interface Progress {
+        /**
+         * @param completed The runs executed
+         * @param total     The runs to execute
+         * @param output    The statistics of the runs executed
+         */
+        void onProgress(int completed, int total, SwirlOutputBundle output);
+    }
+
+    public final static int BATCH_SIZE_DEFAULT = 100;
+
+    private final Executor mExecutor;
+    private ForkJoinPool   mPool = null; // Runs within a batch, serial when null
+    private int            mBatchSize = BATCH_SIZE_DEFAULT;
+
+    /**
+     * Creates a runner that starts a daemon thread per simulation.
+     */
+    public SwirlAsyncRunner() {
+        this(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Thread thread = new Thread(command, TAG);
+                thread.setDaemon(true);
+                thread.start();
+            }
+        });
+    }
+
+    /**
+     * @param executor Executes each simulation as one long task
+     */
+    public SwirlAsyncRunner(Executor executor) {
+        if (executor == null) {
+            throw new InvalidParameterException("Invalid executor: null");
+        }
+        mExecutor = executor;
+    }
+
+    /**
+     * Submits a simulation seeded from the clock.
+     *
+     * @param parameters The parameters
+     *
+     * @return The future statistics
+     */
+    public CompletableFuture<SwirlOutputBundle> submit(SwirlParameterBundle parameters) {
+        return submit(parameters, System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Submits a simulation. Invalid parameters throw here rather than through the future.
+     *
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     * @param progress   Notified after each batch, may be null
+     *
+     * @return The future statistics, cancel it to stop the simulation
+     */
+    public CompletableFuture<SwirlOutputBundle> submit(SwirlParameterBundle parameters, long seed,
+                                                       Progress progress) {
+        SwirlEngine engine = new SwirlEngine(parameters, seed); // Validates the parameters
+        engine.setKeepData(false);
+        engine.setOutput(new SwirlOutputBundle(parameters, false));
+        return submit(engine, progress);
+    }
+
+    /**
+     * Submits the remaining runs of a configured engine, whose output receives the
+     * statistics. One summarizing the runs is set if it has none.
+     *
+     * @param engine   The engine
+     * @param progress Notified after each batch, may be null
+     *
+     * @return The future statistics, cancel it to stop the simulation
+     */
+    public CompletableFuture<SwirlOutputBundle> submit(final SwirlEngine engine,
+                                                       final Progress progress) {
+        if (engine.getOutput() == null) {
+            engine.setOutput(new SwirlOutputBundle(engine.getParameters(), engine.isKeepingData()));
+        }
+        if (mPool != null) engine.setPool(mPool);
+        final int batchSize = mBatchSize;
+        final CompletableFuture<SwirlOutputBundle> future = new CompletableFuture<>();
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        simulate(engine, progress, batchSize, future);
+                    } catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * Executes batches until done or cancelled. Completing a cancelled future has no effect.
+     */
+    private static void simulate(SwirlEngine engine, Progress progress, int batchSize,
+                                 CompletableFuture<SwirlOutputBundle> future) {
+        if (future.isDone()) return;
+        if (!engine.isInitialized() && !engine.initialize()) {
+            throw new IllegalStateException("Not initialized");
+        }
+
+        SwirlOutputBundle output = engine.getOutput();
+        int total = engine.iterationsCompleted() + engine.iterationsLeft();
+
+        while (engine.iterationsLeft() > 0 && !future.isDone()) {
+            int n = Math.min(batchSize, engine.iterationsLeft());
+            if (engine.isAntithetic() && (n & 1) == 1 && n < engine.iterationsLeft()) {
+                n++; // Keep pairs within a batch
+            }
+            engine.iterate(n);
+            if (progress != null) progress.onProgress(engine.iterationsCompleted(), total, output);
+        }
+
+        future.complete(output);
+    }
+
+    //  Getters & Setters
+
+    public ForkJoinPool getPool() {
+        return mPool;
+    }
+
+    /**
+     * @param pool Spreads each batch's runs, applied to engines as they are submitted, null
+     *             to leave them as configured
+     */
+    public void setPool(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * Smaller batches report and respond to cancellation sooner, larger ones spread better
+     * over a pool.
+     *
+     * @param batchSize The runs executed between progress reports
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Invalid batch size: " + batchSize);
+        }
+        mBatchSize = batchSize;
+    }
+}
@@ -0,0 +1,308 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Compares two scenarios run by run with common random numbers. Both engines share a seed, so
+ * run i of each draws the same EVs, EVs being keyed on run, period and index alone, and the
+ * differences between paired runs are due to the parameters rather than chance. When the
+ * scenarios respond alike to the same draws, the paired differences vary far less than two
+ * independent sets of runs would.
+ * <p>
+ * Differences are second minus first. Runs execute in batches so only a batch of totals is
+ * held at once, each batch spread over the pool when one is given.
+ * <p>
+ * Created by Allan Stewart on 2018-05-20.
+ */
+public class SwirlDifference {
+    public static final String TAG = "SwirlDifference";
+
+    public final static int BATCH_SIZE_DEFAULT = 1000;
+
+    private final SwirlParameterBundle mFirst, mSecond;
+    private final int I, T;
+
+    private int mBatchSize = BATCH_SIZE_DEFAULT;
+
+    //  Results
+    private SwirlOutputBundle mFirstOutput, mSecondOutput;
+    private long[] mDifferenceSums; // t
+    private long[] mDifferenceSquares; // t
+    private int    mNRuns = 0;
+    private int    mFirstOnly = 0; // Runs extinct in the first scenario only
+    private int    mSecondOnly = 0; // Runs extinct in the second scenario only
+
+    /**
+     * @param first  The parameters of the first scenario
+     * @param second The parameters of the second, with the same number of runs and periods
+     */
+    public SwirlDifference(SwirlParameterBundle first, SwirlParameterBundle second) {
+        if (first == null || !first.isValid() || second == null || !second.isValid()) {
+            throw new InvalidParameterException("Invalid Parameters");
+        }
+        if (first.getNRuns() != second.getNRuns() ||
+            first.getNPeriods() != second.getNPeriods()) {
+            throw new InvalidParameterException("Runs and periods must match");
+        }
+
+        mFirst = first;
+        mSecond = second;
+        I = first.getNRuns();
+        T = first.getNPeriods()+1;
+    }
+
+    /**
+     * Executes both scenarios on the calling thread.
+     *
+     * @param seed The seed both share
+     */
+    public void run(long seed) {
+        run(seed, null);
+    }
+
+    /**
+     * Executes both scenarios, replacing any earlier results.
+     *
+     * @param seed The seed both share
+     * @param pool Spreads each batch's runs, serial when null
+     */
+    public void run(long seed, ForkJoinPool pool) {
+        SwirlEngine first = engine(mFirst, seed, pool);
+        SwirlEngine second = engine(mSecond, seed, pool);
+        mFirstOutput = first.getOutput();
+        mSecondOutput = second.getOutput();
+        mDifferenceSums = new long[T];
+        mDifferenceSquares = new long[T];
+        mNRuns = mFirstOnly = mSecondOnly = 0;
+
+        int batch = Math.min(mBatchSize, I);
+        Totals firstTotals = new Totals(mFirst, batch), secondTotals = new Totals(mSecond, batch);
+        first.setListener(firstTotals);
+        second.setListener(secondTotals);
+
+        while (first.iterationsLeft() > 0) {
+            int from = first.iterationsCompleted(), n = Math.min(batch, first.iterationsLeft());
+            firstTotals.mFirstRun = secondTotals.mFirstRun = from;
+            first.iterate(n);
+            second.iterate(n);
+
+            for (int j = 0; j < n; j++) {
+                for (int t = 0, e = j*T; t < T; t++, e++) {
+                    long d = secondTotals.mTotals[e] - firstTotals.mTotals[e];
+                    mDifferenceSums[t] += d;
+                    mDifferenceSquares[t] += d*d;
+                }
+                if (firstTotals.mExtinct[j] && !secondTotals.mExtinct[j]) mFirstOnly++;
+                if (secondTotals.mExtinct[j] && !firstTotals.mExtinct[j]) mSecondOnly++;
+            }
+            mNRuns += n;
+        }
+    }
+
+    private static SwirlEngine engine(SwirlParameterBundle parameters, long seed,
+                                      ForkJoinPool pool) {
+        SwirlEngine engine = new SwirlEngine(parameters, seed);
+        engine.setKeepData(false);
+        engine.setOutput(new SwirlOutputBundle(parameters, false));
+        engine.setPool(pool);
+        engine.initialize();
+        return engine;
+    }
+
+    /**
+     * Records each run's total population and extinction for a batch. Runs write disjoint
+     * entries, so may record concurrently.
+     */
+    private static class Totals implements SwirlPeriodListener {
+        private final int T, S, A;
+        private final int[] mRAges;
+        final long[]    mTotals; // Run within the batch, t
+        final boolean[] mExtinct; // Run within the batch
+        int mFirstRun; // Of the batch
+
+        Totals(SwirlParameterBundle parameters, int batch) {
+            T = parameters.getNPeriods()+1;
+            S = parameters.nGenders();
+            A = parameters.getMaxAge()+1;
+            mRAges = parameters.getReproductionAge();
+            mTotals = new long[batch*T];
+            mExtinct = new boolean[batch];
+        }
+
+        @Override
+        public void onPeriod(int i, int t, long[] population, int offset) {
+            long sum = 0;
+            boolean extinct = false;
+            for (int s = 0; s < S; s++) {
+                long rSum = 0;
+                for (int a = 0; a < A; a++) {
+                    long temp = population[offset++];
+                    sum += temp;
+                    if (a >= mRAges[s]) rSum += temp;
+                }
+                extinct |= rSum == 0;
+            }
+
+            int j = i - mFirstRun;
+            mTotals[j*T + t] = sum;
+            if (t == T-1) mExtinct[j] = extinct; // As SwirlOutputBundle
+        }
+
+        @Override
+        public void onRunComplete(int i) {}
+    }
+
+    //  Results
+
+    private void checkRun() {
+        if (mNRuns == 0) {
+            throw new IllegalStateException("Not run");
+        }
+    }
+
+    /**
+     * @return The mean difference in total population at each period
+     */
+    public double[] getMeanDifferences() {
+        checkRun();
+        double[] means = new double[T];
+        for (int t = 0; t < T; t++) means[t] = mDifferenceSums[t] / (double) mNRuns;
+        return means;
+    }
+
+    /**
+     * @return The standard deviation of the paired differences in total population
+     */
+    public double[] getDifferenceSTDs() {
+        checkRun();
+        double[] stds = new double[T];
+        for (int t = 0; t < T; t++) {
+            double mean = mDifferenceSums[t] / (double) mNRuns;
+            stds[t] = Math.sqrt(Math.max(0.0d, mDifferenceSquares[t] / (double) mNRuns -
+                                               mean * mean));
+        }
+        return stds;
+    }
+
+    /**
+     * @param t The period
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width of the confidence interval of the mean difference
+     */
+    public double getDifferenceHalfWidth(int t, double z) {
+        checkRun();
+        if (mNRuns < 2) return Double.POSITIVE_INFINITY;
+        return z * getDifferenceSTDs()[t] * Math.sqrt(1.0d / (mNRuns - 1));
+    }
+
+    /**
+     * The half-width the same number of independent runs of each scenario would give.
+     *
+     * @param t The period
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width of the unpaired interval
+     */
+    public double getIndependentHalfWidth(int t, double z) {
+        checkRun();
+        double first = mFirstOutput.getSummaryHalfWidth(t, z);
+        double second = mSecondOutput.getSummaryHalfWidth(t, z);
+        return Math.sqrt(first * first + second * second);
+    }
+
+    /**
+     * @param t The period
+     *
+     * @return The fraction of the unpaired variance of the mean difference removed by pairing,
+     *         negative if pairing added variance
+     */
+    public double getVarianceReduction(int t) {
+        checkRun();
+        double paired = getDifferenceHalfWidth(t, 1.0d);
+        double independent = getIndependentHalfWidth(t, 1.0d);
+        return (independent > 0.0d) ? 1.0d - (paired * paired) / (independent * independent) :
+               0.0d;
+    }
+
+    /**
+     * @return The difference in extinction probability, from the runs extinct in one scenario
+     *         only
+     */
+    public double getExtinctionDifference() {
+        checkRun();
+        return (mSecondOnly - mFirstOnly) / (double) mNRuns;
+    }
+
+    /**
+     * The paired half-width, from the discordant runs, as McNemar's test.
+     *
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width of the confidence interval of the difference
+     */
+    public double getExtinctionDifferenceHalfWidth(double z) {
+        checkRun();
+        if (mNRuns < 2) return Double.POSITIVE_INFINITY;
+        double d = getExtinctionDifference();
+        double variance = (mFirstOnly + mSecondOnly) / (double) mNRuns - d * d;
+        return z * Math.sqrt(Math.max(0.0d, variance) / (mNRuns - 1));
+    }
+
+    /**
+     * @return The runs extinct in the first scenario but not the second
+     */
+    public int getFirstOnlyExtinct() {
+        return mFirstOnly;
+    }
+
+    /**
+     * @return The runs extinct in the second scenario but not the first
+     */
+    public int getSecondOnlyExtinct() {
+        return mSecondOnly;
+    }
+
+    public int getCompleteRuns() {
+        return mNRuns;
+    }
+
+    /**
+     * @return The statistics of the first scenario, from the last run
+     */
+    public SwirlOutputBundle getFirstOutput() {
+        return mFirstOutput;
+    }
+
+    /**
+     * @return The statistics of the second scenario, from the last run
+     */
+    public SwirlOutputBundle getSecondOutput() {
+        return mSecondOutput;
+    }
+
+    //  Settings
+
+    public SwirlParameterBundle getFirst() {
+        return mFirst;
+    }
+
+    public SwirlParameterBundle getSecond() {
+        return mSecond;
+    }
+
+    public int getBatchSize() {
+        return mBatchSize;
+    }
+
+    /**
+     * @param batchSize The runs of each scenario held at once
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new InvalidParameterException("Invalid batch size: " + batchSize);
+        }
+        mBatchSize = batchSize;
+    }
+}
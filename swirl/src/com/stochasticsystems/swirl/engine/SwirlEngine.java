@@ -1,18 +1,49 @@
 package com.stochasticsystems.swirl.engine;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
-import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
 
 /**
  * Created by Allan Stewart on 10/8/2017.
+ * <p>
+ * Not thread safe, one thread drives an engine at a time, see SwirlAsyncRunner. Its status is
+ * volatile so other threads may poll progress while it runs.
+ * <p>
+ * Completed runs are published through mI: everything a run writes precedes the volatile
+ * write that counts it, and readers read mI before its data. Other threads may therefore call
+ * the getters of completed runs, getData, getRun, getDataTensor and getZeroPopulationTime(s),
+ * without locks while the engine iterates. Serial runs are published one at a time, runs on a
+ * pool as they complete the prefix of runs before them, see Watermark. Only the driving thread
+ * may initialize or drop data.
  */
 
 public class SwirlEngine {
     public static final String TAG = "SwirlEngine";
 
-    // TODO: Thread safety?
+    //  Checkpoint format
+    private final static int  CHECKPOINT_MAGIC   = 0x5357434B; // "SWCK"
+    private final static int  CHECKPOINT_VERSION = 1;
+    private final static byte SOURCE_DEFAULT     = 0; // A ziggurat on the seed
+    private final static byte SOURCE_ZIGGURAT    = 1;
+    private final static byte SOURCE_RANDOM      = 2;
+    private final static byte SOURCE_SOBOL       = 3;
 
     private final SwirlParameterBundle mParameters;
 
@@ -23,25 +54,77 @@ public class SwirlEngine {
     private final int A;
 
     //  Local use stuff
-    private Random mGenerator;
-
-    //  Status
-    // TODO: volatile?
-    private int       mI; // Current iteration step number
+    private final long   mSeed;
+    private SwirlNormalSource mGenerator; // Keyed on run, period and EV index
+    private SwirlNormalSource mNormalSource = null; // A ziggurat on the seed when null
+    private ForkJoinPool mPool = null; // Serial when null
+    private boolean      mKeepData = true;
+    private SwirlPopulationTensor.Storage mStorage = null; // Chosen by size when null
+    private File         mStorageFile = null;
+    private SwirlPeriodListener mListener = null;
+    private SwirlOutputBundle   mOutput = null; // Statistics streamed as runs execute
+    private boolean      mSpecialized = SwirlKernel.isDefault(); // Step via mKernel
+    private SwirlKernel  mKernel; // Specialized to the parameters, set in initialize()
+    private int          mLockstep = 1; // Runs advanced together, see setLockstep
+    private boolean      mAntithetic = false; // Odd runs negate the EVs of the run before
+
+    //  Derived constants, set in initialize()
+    private boolean    mGendered;
+    private long[][]   mInitialPop;
+    private long[]     mInitialFlat; // s, a
+    private int        mRAgeF, mRAgeM;
+    private double     mSR, mSR2;
+    private boolean    mCorrelateRM, mEquateRM;
+    private double     mRhoRM, mRhoRM2;
+    private double[]   mLitters;
+    private double     mRVP, mAvgL;
+    private double[][] mMortality, mMortalitySD;
+    private int        mHarvest, mSupplement;
+    private double[][] mSupplements;
+    private long       mK;
+    private double     mKSD;
+    private long       mNFStart, mNMStart, mNRFStart, mNRMStart;
+    private double     mLitterSum; // Sum of l * p(l), ungendered reproduction
+    private boolean    mDeterministic; // Every run is identical, see share()
+
+    //  Status, written by the driving thread only
+    private volatile int     mI; // Current iteration step number, runs below it are published
     //private int       mT; // Current time step number
-    private boolean   mCompleted = false;
-    private boolean   mInitialized = false;
+    private volatile boolean mCompleted = false;
+    private volatile boolean mInitialized = false;
     private boolean mMemSafe = true;
 
+    //  Checkpoint, see checkpoint()
+    private File mCheckpointFile = null; // The last written
+    private int  mCheckpointRuns = 0; // Runs in its log
+    private long mCheckpointLog = 0L; // Bytes in its log
+
     //  Data
-    protected           long[][][][] mPopulationData; //  volatile? i, t, s, a
+    protected SwirlPopulationTensor mPopulationData; // i, t, s, a, set before runs publish
+    private   SwirlPopulationTensor mTrajectory; // The run every run shares, deterministic only
+    private   SwirlAccumulator      mTrajectorySums; // Its statistics, once executed
+    private   int                   mTrajectoryExtinction; // Its zero population period, or -1
+    private   boolean[]             mStored; // Runs currently held in mPopulationData
+    private   int[]                 mExtinction; // The period from which each run is zero, or -1
+    private   long[]                mZeros; // An all zero period, s, a
 
     /**
-     * Creates an engine based on the provided parameters.
+     * Creates an engine based on the provided parameters, seeded from the clock.
      *
      * @param parameters The parameters used to define the simulation
      */
     public SwirlEngine(SwirlParameterBundle parameters) {
+        this(parameters, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates an engine based on the provided parameters.
+     * Engines with the same parameters and seed produce identical results, serial or parallel.
+     *
+     * @param parameters The parameters used to define the simulation
+     * @param seed       The seed, every draw is keyed on it
+     */
+    public SwirlEngine(SwirlParameterBundle parameters, long seed) {
         if (parameters == null || !parameters.isValid()) {
             throw new InvalidParameterException("Invalid Parameters: " + ((parameters == null) ? "null" : "invalid" ));
         }
@@ -51,6 +134,7 @@ public class SwirlEngine {
         T = mParameters.getNPeriods()+1;
         S = mParameters.nGenders();
         A = mParameters.getMaxAge()+1;
+        mSeed = seed;
 
         mI = 0;
         //mT = 0;
@@ -60,18 +144,29 @@ public class SwirlEngine {
     //  Run methods
 
     /**
-     * Finishes a simulation and returns the results.
+     * Finishes a simulation and returns a copy of the results.
      *
      * @return The results
      */
     public long[][][][] completeResults() {
+        completeTensor();
+
+        return getData(0);
+    }
+
+    /**
+     * Finishes a simulation and returns the results, without copying them.
+     *
+     * @return The results, or null if the data is not being kept
+     */
+    public SwirlPopulationTensor completeTensor() {
         if (!mInitialized) initialize();
 
         if (!mCompleted) iterate(iterationsLeft());
 
         complete(); // Currently does nothing
 
-        return mPopulationData; // Maybe should clone
+        return mPopulationData;
     }
 
     /**
@@ -84,19 +179,141 @@ public class SwirlEngine {
             //  This shouldn't happen, maybe throw an error?
             return false;
         }
+        if (mNormalSource instanceof SwirlSobol &&
+            ((SwirlSobol) mNormalSource).getDimensions() != 3 * (T-1)) {
+            //  Its points would not cover every period's draws
+            throw new InvalidParameterException("Invalid Sobol dimensions: " +
+                                                ((SwirlSobol) mNormalSource).getDimensions());
+        }
 
         //  These should be handled already in the constructor, but better safe than sorry...
         mI = 0;
         //mT = 0;
         mCompleted = false;
 
-        mPopulationData = new long[I][][][];//[t][s][a]; // i, t, a, s
+        mDeterministic = mParameters.isDeterministic();
+        mTrajectory = (mDeterministic) ? SwirlPopulationTensor.shared(I, T, S, A) : null;
+        mTrajectorySums = null;
+
+        mPopulationData = (mKeepData) ? createStorage() : null;
+        mStored = new boolean[I];
+        mExtinction = new int[I];
+        mZeros = new long[S*A];
+
+        mGenerator = (mNormalSource != null) ? mNormalSource : new SwirlZiggurat(mSeed);
+
+        //  Constants
+        mGendered = mParameters.isGendered();
+        mInitialPop = mParameters.getInitialPopulation();
+        mInitialFlat = new long[S*A];
+        for (int s = 0; s < S; s++) System.arraycopy(mInitialPop[s], 0, mInitialFlat, s*A, A);
+        int[] rAges = mParameters.getReproductionAge();
+        mRAgeF = rAges[0];
+        mRAgeM = (mGendered) ? rAges[1] : -1;
+        mSR = (mGendered) ? mParameters.getSexRatio() : 1.0d;
+        mSR2 = 1.0 - mSR;
+        mCorrelateRM = mParameters.getRMCorrelation() != 0.0d;
+        mEquateRM = mParameters.getRMCorrelation() == 1.0d;
+        mRhoRM = mParameters.getRMCorrelation();
+        mRhoRM2 = Math.sqrt(1.0d-mRhoRM*mRhoRM);
+        mLitters = mParameters.getLitterProbability();
+        //double rSD = mParameters.mReproductionPercentSD;
+        mRVP = mLitters[0]*(1-mLitters[0]);
+        mMortality = mParameters.getMortality();
+        mMortalitySD = mParameters.getSDMortality();
+        mHarvest = mParameters.getHarvestRate();
+        mSupplement = mParameters.getSupplementRate();
+        mK = mParameters.getCarryingCapacity();
+        mKSD = mParameters.getSDCarryingCapacity();
+        mAvgL = mParameters.meanLitterSize();
+        double litterSum = 0.0d;
+        for (int l = 1; l < mLitters.length; l++) {
+            litterSum += l * mLitters[l];
+        }
+        mLitterSum = litterSum;
+
+        //  Starting census
+        long nFStart = 0, nMStart = 0, nRFStart = 0, nRMStart = 0;
+
+        for (int a = 0; a < mRAgeF; a++) {
+            nFStart += mInitialPop[0][a];
+        }
+        for (int a = mRAgeF; a < A; a++) {
+            nFStart += mInitialPop[0][a];
+            nRFStart += mInitialPop[0][a];
+        }
+
+        if (mGendered) {
+            for (int a = 0; a < mRAgeM; a++) {
+                nMStart += mInitialPop[1][a];
+            }
+            for (int a = mRAgeM; a < A; a++) {
+                nMStart += mInitialPop[1][a];
+                nRMStart += mInitialPop[1][a];
+            }
+        }
+
+        mNFStart = nFStart;
+        mNMStart = nMStart;
+        mNRFStart = nRFStart;
+        mNRMStart = nRMStart;
+
+        //  Init delta, skips 0 by default
+        double[][] supplements = new double[S][A];
+        double tempF, tempM;
+        tempF = tempM = 1.0d;
+        double tempFS = 0.0d, tempMS  = 0.0d;
+        //tempL = supplement - harvest;
+        if (mSupplement > 0L) {
+            if (mGendered) {
+                for (int a = 1; a < A; a++) {
+                    supplements[0][a] = tempF;
+                    tempFS += tempF;
+                    tempF *= 1.0d - mMortality[0][a];
+                    supplements[1][a] = tempM;
+                    tempMS += tempM;
+                    tempM *= 1.0d - mMortality[1][a];
+                }
+                tempF = mSupplement * mSR2 / tempFS;
+                tempM = mSupplement * mSR / tempMS;
+                for (int a = 1; a < A; a++) { // Normalize
+                    supplements[0][a] *= tempF;
+                    supplements[1][a] *= tempM;
+                }
+            } else {
+                for (int a = 1; a < A; a++) {
+                    supplements[0][a] = tempF;
+                    tempFS += tempF;
+                    tempF *= 1.0d - mMortality[0][a];
+                }
+                tempF = mSupplement / tempF;
+                for (int a = 1; a < A; a++) { // Normalize
+                    supplements[0][a] *= tempF;
+                }
+            }
+        }
+        mSupplements = supplements;
 
-        mGenerator = new Random(System.currentTimeMillis());
+        mKernel = SwirlKernel.create(mParameters, supplements);
 
         return mInitialized = true;
     }
 
+    /**
+     * @return A new tensor for the results, using the configured storage, or the shared
+     *         trajectory if every run is identical
+     */
+    private SwirlPopulationTensor createStorage() {
+        if (mDeterministic) return mTrajectory;
+        if (mStorage == null) return SwirlPopulationTensor.allocate(I, T, S, A);
+
+        try {
+            return SwirlPopulationTensor.create(mStorage, mStorageFile, I, T, S, A);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create storage: " + e.getMessage(), e);
+        }
+    }
+
     /**
      * Iterates up to n iterations, after moved to separate thread.
      *
@@ -111,6 +328,7 @@ public class SwirlEngine {
     /**
      * Iterates up to n iterations, after moved to separate thread.
      * Prints debug information to out
+     * Runs are spread over the pool if one is set and there is no debug output.
      *
      * @param toRun The number of iterations to execute.
      * @param debug The debug output
@@ -121,458 +339,1818 @@ public class SwirlEngine {
         int n = Math.min(toRun, iterationsLeft());
 
         if (mInitialized && !mCompleted && n <= iterationsLeft()) {
-            //  Constants
-            //double norm = 1.0d / Math.sqrt(2.0d*Math.PI);
-
-            //  I think it is faster to have local variables...
             int endI = mI+n;
-            int T = this.T;
-            int S = this.S;
-            int A = this.A;
-            boolean gendered = mParameters.isGendered();
-            long[][] initialPop = mParameters.getInitialPopulation();
-            int[] rAges = mParameters.getReproductionAge();
-            int rAgeF = rAges[0];
-            int rAgeM = (gendered) ? rAges[1] : -1;
-            double sr = (gendered) ? mParameters.getSexRatio() : 1.0d;
-            double sr2 = 1.0 - sr;
-            boolean correlateRM = mParameters.getRMCorrelation() != 0.0d;
-            boolean equateRM = mParameters.getRMCorrelation() == 1.0d;
-            double rhoRM = mParameters.getRMCorrelation();
-            double rhoRM2 = Math.sqrt(1.0d-rhoRM*rhoRM);
-            final int evR = 0, evM = 1, evK = 2, evs = 3; // Indices
-            double[] ev = new double[evs];
-            double[] litters = mParameters.getLitterProbability();
-            int L = litters.length; // mParameters.getMaxLitterSize()+1;
-            //double rSD = mParameters.mReproductionPercentSD;
-            double rVP = litters[0]*(1-litters[0]);
-            double[][] mortality = mParameters.getMortality();
-            double[][] mortalitySD = mParameters.getSDMortality();
-            int harvest = mParameters.getHarvestRate();
-            int supplement = mParameters.getSupplementRate();
-            double[][] supplements = new double[S][A];
-            long k = mParameters.getCarryingCapacity();
-            double kSD = mParameters.getSDCarryingCapacity();
-
-            // TODO: Move this out
-            double avgL = mParameters.meanLitterSize();
-
-            //  Counters
-            long nF = 0, nM = 0, nRF = 0, nRM = 0;
-            long nFStart = 0, nMStart = 0, nRFStart = 0, nRMStart = 0;
-
-            for (int a = 0; a < rAgeF; a++) {
-                nFStart += initialPop[0][a];
-            }
-            for (int a = rAgeF; a < A; a++) {
-                nFStart += initialPop[0][a];
-                nRFStart += initialPop[0][a];
-            }
 
-            if (gendered) {
-                for (int a = 0; a < rAgeM; a++) {
-                    nMStart += initialPop[1][a];
-                }
-                for (int a = rAgeM; a < A; a++) {
-                    nMStart += initialPop[1][a];
-                    nRMStart += initialPop[1][a];
-                }
+            if (mKeepData && mPopulationData == null) {
+                mPopulationData = createStorage();
             }
 
             if (debug != null) {
                 StringBuilder sb = new StringBuilder();
-                sb.append(mI).append(" Initialized to: ").append("rVP=").append(rVP)
-                  .append(" avgL=").append(avgL).append('\n');
-                sb.append("\tnFStart=").append(nFStart).append(" nMStart=").append(nMStart)
-                  .append(" nRFStart=").append(nRFStart).append(" nRMStart=").append(nRMStart);
+                sb.append(mI).append(" Initialized to: ").append("rVP=").append(mRVP)
+                  .append(" avgL=").append(mAvgL).append('\n');
+                sb.append("\tnFStart=").append(mNFStart).append(" nMStart=").append(mNMStart)
+                  .append(" nRFStart=").append(mNRFStart).append(" nRMStart=").append(mNRMStart);
                 debug.println(sb);
                 debug.flush();
-            }
 
-            long[][] tempPop;//, tempPopOld;
-            long[] females, femalesOld, males = null, malesOld = null;
-            long tempL;
-            double tempD, tempF, tempM;
-
-            //  Init delta, skips 0 by default
-            tempF = tempM = 1.0d;
-            double tempFS = 0.0d, tempMS  = 0.0d;
-            //tempL = supplement - harvest;
-            if (supplement > 0L) {
-                if (gendered) {
-                    for (int a = 1; a < A; a++) {
-                        supplements[0][a] = tempF;
-                        tempFS += tempF;
-                        tempF *= 1.0d - mortality[0][a];
-                        supplements[1][a] = tempM;
-                        tempMS += tempM;
-                        tempM *= 1.0d - mortality[1][a];
-                    }
-                    tempF = supplement * sr2 / tempFS;
-                    tempM = supplement * sr / tempMS;
-                    for (int a = 1; a < A; a++) { // Normalize
-                        supplements[0][a] *= tempF;
-                        supplements[1][a] *= tempM;
-                    }
-                } else {
-                    for (int a = 1; a < A; a++) {
-                        supplements[0][a] = tempF;
-                        tempFS += tempF;
-                        tempF *= 1.0d - mortality[0][a];
-                    }
-                    tempF = supplement / tempF;
-                    for (int a = 1; a < A; a++) { // Normalize
-                        supplements[0][a] *= tempF;
-                    }
-                }
-                if (debug != null) {
-                    StringBuilder sb = new StringBuilder();
-                    sb.append("Supplimenting to: \n\t").append(Arrays.toString(supplements[0]));
-                    if (gendered) sb.append("\n\t").append(Arrays.toString(supplements[1]));
+                if (mSupplement > 0L) {
+                    sb = new StringBuilder();
+                    sb.append("Supplimenting to: \n\t").append(Arrays.toString(mSupplements[0]));
+                    if (mGendered) sb.append("\n\t").append(Arrays.toString(mSupplements[1]));
                     debug.println(sb);
                     debug.flush();
                 }
             }
 
-            for (int i = mI; i < endI; i++) {
-                //  Iteration init
-                //mT = 0;
-                mPopulationData[i] = new long[T][][];
-                nF = nFStart;
-                nRF = nRFStart;
-                if (gendered) {
-                    nM = nMStart;
-                    nRM = nRMStart;
+            if (mDeterministic) {
+                share(mI, endI, debug);
+                this.mI = endI;
+            } else if (mPool != null && debug == null && n > 1) {
+                int grain = Math.max(1, n / (mPool.getParallelism() * 4));
+                RunTask task = new RunTask(mI, endI, grain, new Watermark(mI, endI));
+                if (ForkJoinTask.getPool() == mPool) { // Already a worker, see SwirlSweep
+                    task.invoke();
+                } else {
+                    mPool.invoke(task);
                 }
-                //  Should we add some randomization?
-
-                //  Initial time period
-                mPopulationData[i][0] = initialPop.clone();
-                //tempPopOld = mPopulationData[i][0];
-                femalesOld = mPopulationData[i][0][0];//tempPopOld[0];
-                if (gendered) malesOld = mPopulationData[i][0][1];//tempPopOld[1];
-
-                for (int t = 1; t < T; t++) { // Transition to time t
-                    //  Time init
-
-                    //  Set EVs
-                    if (correlateRM) { // If correlated
-                        if (equateRM) { // If perfectly correlated
-                            for (int j = evM; j < evs; j++) ev[j] = mGenerator.nextGaussian();
-                            ev[evR] = ev[evM];
-                        } else {
-                            for (int j = 0; j < evs; j++) ev[j] = mGenerator.nextGaussian();
-                            ev[evR] = ev[evM] * rhoRM + ev[evR] * rhoRM2; // Add correlation
-                        }
-                    } else {
-                        for (int j = 0; j < evs; j++) ev[j] = mGenerator.nextGaussian();
-                    }
-
-                    if (debug != null) {
-                        StringBuilder sb = new StringBuilder();
-                        sb.append(i).append(", t").append(t-1).append(": \n\t")
-                          .append(Arrays.toString(femalesOld));
-                        if (gendered) sb.append("\n\t").append(Arrays.toString(malesOld));
-                        sb.append("\n\t t").append(t).append(": evs: ").append(Arrays.toString(ev));
-                        debug.println(sb);
-                        debug.flush();
-                    }
+                this.mI = endI;
+            } else {
+                simulate(mI, endI, debug, null);
+                this.mI = endI;
+            }
+            // Iterations now complete
 
-                    tempPop = new long[S][A];
-                    females = tempPop[0];
-                    females[0] = 0;
-
-                    //  Reproduction
-                    if (gendered) {
-                        males = tempPop[1];
-                        males[0] = 0;
-                        if (nRF > 0 && nRM > 0) { // viability check
-                            //  Multiply by reproductive population & ev effect
-                            //(1.0d + Math.exp(ev[evR] * ev[evR] / -2.0d) *Math.signum(ev[evR]));
-                            tempF = avgL * nRF * (1.0d + ev[evR] * Math.sqrt(rVP / nRF));
-                            tempF = Math.max(0.0d, tempF); // Check and remove negatives
-                            tempM = tempF; // Prepare for sex ratio
-                            tempM *= sr; // Sex ratio applied
-                            tempF *= sr2; // TODO: variation in sex ratio?
-
-                            //  Assign the pops
-                            females[0] = Math.round(tempF);
-                            males[0] = Math.round(tempM);
-                        }
-                    } else {
-                        if (nRF > 0) { // viability check
-                            tempF = 0.0d;
-                            for (int l = 1; l < L; l++) {
-                                tempF += l * litters[l];
-                            }
-                            //  Multiply by reproductive population & ev effect
-                            tempF *= nRF * (1.0d + ev[evR] * Math.sqrt(rVP / nRF));
-                            tempF = Math.max(0.0d, tempF); // Check and remove negatives
+            if (mOutput != null && mKeepData) mOutput.shareData(mPopulationData);
 
-                            //  Assign the pops
-                            females[0] = Math.round(tempF);
-                        }
-                    }
-                    //  Now temp has the age 0 set pre mortality
-                    if (debug != null) {
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("Reproducing to: ").append(tempPop[0][0]);
-                        if (gendered) sb.append(" and ").append(tempPop[1][0]);
-                        debug.println(sb);
-                        debug.flush();
-                    }
+            if(this.mI == I) this.mCompleted = true;
 
-                    //  Aging, Mortality, Harvest & Supplement
-                    if (gendered) {
-                        tempD = (harvest > 0) ? (nF + nM > 0) ? (nF + nM - harvest) / (double) (nF + nM) : 0.0d : 1.0d;
-                        for (int a = A-2; a >= 0; a--) {
-                            females[a+1] = Math.max(0L, Math.round(femalesOld[a] * (1.0d - (mortality[0][a] + mortalitySD[0][a] * ev[evM])) * tempD + supplements[0][a]));
-                            males[a+1] = Math.max(0L, Math.round(malesOld[a] * (1.0d - (mortality[1][a] + mortalitySD[1][a] * ev[evM])) * tempD + supplements[1][a]));
-                        }
-                    } else {
-                        tempD = (harvest > 0) ? (nF > 0) ? (nF - harvest) / (double) (nF) : 0.0d : 1.0d;
-                        for (int a = A-2; a >= 0; a--) {
-                            females[a+1] = Math.max(0L, Math.round(femalesOld[a] * (mortality[0][a] + mortalitySD[0][a] * ev[evM]) * tempD + supplements[0][a]));
-                        }
-                    }
-                    if (debug != null) {
-                        StringBuilder sb = new StringBuilder();
-                        sb.append("Aging to: \n\t").append(Arrays.toString(tempPop[0]));
-                        if (gendered) sb.append("\n\t").append(Arrays.toString(tempPop[1]));
-                        debug.println(sb);
-                        debug.flush();
-                    }
+            return true;
 
-                    // Census
-                    nF = nRF = 0;
-                    for (int a = 0; a < rAgeF; a++) {
-                        nF += females[a];
-                    }
-                    for (int a = rAgeF; a < A; a++) {
-                        nF += females[a];
-                        nRF += females[a];
-                    }
+        } else {
+            //  This shouldn't happen
+            return false;
+        }
+    }
 
-                    if (gendered) {
-                        nM = nRM = 0;
-                        for (int a = 0; a < rAgeM; a++) {
-                            nM += males[a];
-                        }
-                        for (int a = rAgeM; a < A; a++) {
-                            nM += males[a];
-                            nRM += males[a];
-                        }
-                    }
+    /**
+     * Executes runs first to last, exclusive, on the calling thread, storing them when kept and
+     * adding them to the output when set.
+     *
+     * @param first     The first run
+     * @param last      The run after the last
+     * @param debug     Debug stream, may be null
+     * @param watermark Where each run is published as it completes on a pool, or null to
+     *                  publish it directly, from the driving thread only
+     */
+    private void simulate(int first, int last, PrintStream debug, Watermark watermark) {
+        SwirlPopulationTensor store = (mKeepData) ? mPopulationData : null;
+        SwirlAccumulator accumulator = (mOutput != null) ? accumulator() : null;
+        SwirlPeriodListener listener = mListener;
+        if (accumulator != null) {
+            listener = (listener == null) ? accumulator : new ListenerPair(accumulator, listener);
+        }
 
-                    // Carrying Capacity
-                    tempD = Math.max(0.0d, k+kSD*ev[evK]);
-                    tempL = Math.round(tempD);
-                    if (gendered) {
-                        if (nF + nM > tempL) {
-                            tempD = (nF + nM > 0) ? tempD / (nF + nM) : 0.0d;
-                            for (int a = 0; a < A; a++) {
-                                females[a] = Math.round(females[a] * tempD);
-                                males[a] = Math.round(males[a] * tempD);
-                            }
+        if (mLockstep > 1 && debug == null) {
+            Block b = new Block(Math.min(mLockstep, last-first));
+            for (int i = first; i < last; i += b.R) {
+                simulate(i, Math.min(b.R, last-i), b, store, listener);
+                for (int j = i; j < i+b.R && j < last; j++) mStored[j] = store != null;
+                if (watermark != null) {
+                    watermark.complete(i, Math.min(i+b.R, last));
+                } else {
+                    mI = Math.min(i+b.R, last);
+                }
+            } // for i
+        } else {
+            Workspace w = new Workspace();
+            for (int i = first; i < last; i++) {
+                simulate(i, debug, w, store, listener);
+                mStored[i] = store != null;
+                if (watermark != null) {
+                    watermark.complete(i, i+1);
+                } else {
+                    mI = i+1;
+                }
+            } // for i
+        }
 
-                            //  Redo census
-                            nF = nRF = nM = nRM = 0;
-                            for (int a = 0; a < rAgeF; a++) {
-                                nF += females[a];
-                            }
-                            for (int a = rAgeF; a < A; a++) {
-                                nF += females[a];
-                                nRF += females[a];
-                            }
-                            for (int a = 0; a < rAgeM; a++) {
-                                nM += males[a];
-                            }
-                            for (int a = rAgeM; a < A; a++) {
-                                nM += males[a];
-                                nRM += males[a];
-                            }
+        if (accumulator != null) mOutput.addStatistics(accumulator);
+    }
 
-                            if (debug != null) {
-                                StringBuilder sb = new StringBuilder();
-                                sb.append("K(").append(k+kSD*ev[evK]).append("->").append(tempD).append(") to: \n\t").append(Arrays.toString(tempPop[0]));
-                                sb.append("\n\t").append(Arrays.toString(tempPop[1]));
-                                debug.println(sb);
-                                debug.flush();
-                            }
-                        }
-                    } else {
-                        if (nF > tempL) {
-                            tempD = (nF > 0) ? tempD / (nF) : 0.0d;
-                        }
-                        for (int a = 0; a < A; a++) {
-                            females[a] = Math.round(females[a] * tempD);
-                        }
+    /**
+     * Completes runs first to last, exclusive, when every run is identical.
+     * The first run executed is kept as the trajectory, which every later run shares rather
+     * than copies, and its statistics are added once per run. The listener is still notified
+     * of every run.
+     *
+     * @param first The first run
+     * @param last  The run after the last
+     * @param debug Debug stream, may be null
+     */
+    private void share(int first, int last, PrintStream debug) {
+        SwirlPopulationTensor run = mTrajectory;
 
-                        //  Redo census
-                        nF = nRF = 0;
-                        for (int a = 0; a < rAgeF; a++) {
-                            nF += females[a];
-                        }
-                        for (int a = rAgeF; a < A; a++) {
-                            nF += females[a];
-                            nRF += females[a];
-                        }
+        if (mTrajectorySums == null) trajectory(first, debug); // Execute it once
 
-                        if (debug != null) {
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("K(").append(tempD).append(") to: \n\t").append(Arrays.toString(tempPop[0]));
-                            debug.println(sb);
-                            debug.flush();
-                        }
-                    }
+        long[] data = run.array();
+        for (int i = first; i < last; i++) {
+            if (mListener != null) {
+                for (int t = 0; t < T; t++) mListener.onPeriod(i, t, data, run.offset(i, t));
+                mListener.onRunComplete(i);
+            }
+            mExtinction[i] = mTrajectoryExtinction;
+            mStored[i] = mKeepData;
+        }
 
-                    //  Record data
-                    mPopulationData[i][t] = tempPop;
+        if (mOutput != null) {
+            SwirlAccumulator accumulator = accumulator();
+            accumulator.addCopies(mTrajectorySums, first, last);
+            mOutput.addStatistics(accumulator);
+        }
+    }
 
-                    //  Prepare for next step
-                    //tempPopOld = tempPop; // May not need?
-                    femalesOld = females;
-                    malesOld = males;
-                } // for t
-                //  The run is now complete
+    /**
+     * Executes the run every run shares, when every run is identical, and keeps its statistics.
+     *
+     * @param i     The run index it executes as
+     * @param debug Debug stream, may be null
+     */
+    private void trajectory(int i, PrintStream debug) {
+        SwirlAccumulator sums = accumulator();
+        simulate(i, debug, new Workspace(), mTrajectory, sums);
+        mTrajectorySums = sums;
+        mTrajectoryExtinction = mExtinction[i];
+    }
 
-                this.mI++;
-            } // for i
-            // Iterations now complete
+    /**
+     * @return A new accumulator for the output, dealing runs to the replicates of a SwirlSobol
+     *         source, otherwise to the output's
+     */
+    private SwirlAccumulator accumulator() {
+        int replicates = (mGenerator instanceof SwirlSobol) ?
+                         ((SwirlSobol) mGenerator).getReplicates() :
+                         (mOutput != null) ? mOutput.getReplicates() : 1;
+        return new SwirlAccumulator(mParameters, replicates);
+    }
 
-            if(this.mI == I) this.mCompleted = true;
+    //  Environmental variation
 
-            return true;
+    private final static int NOISE_BLOCK = 64; // Periods of EVs generated at once
 
-        } else {
-            //  This shouldn't happen
-            return false;
+    /**
+     * Generates every EV of a run in one pass, with the R-M correlation applied.
+     * These are the draws the run executes with, so they can be inspected or reused.
+     *
+     * @param i   The run index
+     * @param out Filled with the EVs, t, ev (reproduction, mortality, carrying capacity),
+     *            at least nPeriods+1 by 3. Period 0 has no EVs and is zeroed.
+     */
+    public void generateNoise(int i, double[] out) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        if (i < 0 || i >= I) {
+            throw new InvalidParameterException("Invalid entry: "+i);
         }
+        if (out == null || out.length < T*3) {
+            throw new InvalidParameterException("Invalid noise buffer");
+        }
+
+        noise(i, out, 0, 0, T);
     }
 
     /**
-     * Returns all data from first to current, inclusive.
-     *
-     * @param first Number of first iteration to return
+     * Fills out from off with the EVs of run i for periods from to to, exclusive, t, ev.
      *
-     * @return The data from first to current
+     * @param i    The run index
+     * @param out  Where to put the EVs
+     * @param off  The offset of period 0 in out
+     * @param from The first period to fill
+     * @param to   The period after the last to fill
      */
-    public long[][][][] getData(int first) {
-        if (!mInitialized) {
-            throw new IllegalStateException("Not initialized");
+    private void noise(int i, double[] out, int off, int from, int to) {
+        SwirlNormalSource generator = mGenerator;
+        double rhoRM = mRhoRM, rhoRM2 = mRhoRM2, evM;
+        int e = off + from*3;
+        boolean negate = mAntithetic && (i & 1) == 1;
+        if (mAntithetic) i &= ~1; // Each pair draws as its even run
+
+        if (from == 0) { // Period 0 has no EVs
+            out[e++] = 0.0d;
+            out[e++] = 0.0d;
+            out[e++] = 0.0d;
+            from = 1;
         }
-        if (first < 0 || first >= mI) {
-            return null;
-            //throw new InvalidParameterException("Invalid entry: "+first);
+
+        if (!mCorrelateRM) {
+            for (int t = from; t < to; t++) {
+                out[e++] = generator.gaussian(i, t, 0);
+                out[e++] = generator.gaussian(i, t, 1);
+                out[e++] = generator.gaussian(i, t, 2);
+            }
+        } else if (mEquateRM) { // If perfectly correlated
+            for (int t = from; t < to; t++) {
+                evM = generator.gaussian(i, t, 1);
+                out[e++] = evM;
+                out[e++] = evM;
+                out[e++] = generator.gaussian(i, t, 2);
+            }
+        } else {
+            for (int t = from; t < to; t++) {
+                evM = generator.gaussian(i, t, 1);
+                out[e++] = evM * rhoRM + generator.gaussian(i, t, 0) * rhoRM2; // Add correlation
+                out[e++] = evM;
+                out[e++] = generator.gaussian(i, t, 2);
+            }
         }
 
-        int l = mI-first;
-        long[][][][] output = new long[l][T][S][A];
-        System.arraycopy(mPopulationData, first, output, 0, l);
-        return output;
+        if (negate) { // Negating every EV keeps the correlation
+            for (e = off + from*3; e < off + to*3; e++) out[e] = -out[e];
+        }
     }
 
     /**
-     * Returns the data from first to last.
+     * Regenerates a single run, without storing it.
+     * Any completed or future run can be replayed independently of the others.
      *
-     * @param first
-     * @param last
+     * @param i     The run index
+     * @param debug The debug output, may be null
      *
-     * @return
+     * @return The run's data, t, s, a
      */
-    public long[][][][] getData(int first, int last) {
+    public long[][][] replay(int i, PrintStream debug) {
         if (!mInitialized) {
             throw new IllegalStateException("Not initialized");
         }
-        if (first < 0 || first >= mI) {
-            throw new InvalidParameterException("Invalid entry: "+first);
-        }
-        if (last <= first || last >= mI) {
-            throw new InvalidParameterException("Invalid entry: "+last);
+        if (i < 0 || i >= I) {
+            throw new InvalidParameterException("Invalid entry: "+i);
         }
 
-        int l = last-first;
-        long[][][][] output = new long[l][T][S][A];
-        System.arraycopy(mPopulationData, first, output, 0, l);
-        return output;
+        return simulate(i, debug);
     }
 
     /**
-     * Currently does nothing, here because it might be required for future additions.
+     * Executes a single run, keeping every period.
      *
-     * @return success
+     * @param i     The run index
+     * @param debug The debug output, may be null
+     *
+     * @return The run's data, t, s, a
      */
-    public boolean complete() {
-        return true;
+    private long[][][] simulate(int i, PrintStream debug) {
+        final long[][][] out = new long[T][S][A];
+
+        simulate(i, debug, new Workspace(), null, new SwirlPeriodListener() {
+            @Override
+            public void onPeriod(int i, int t, long[] population, int offset) {
+                for (int s = 0; s < S; s++, offset += A) {
+                    System.arraycopy(population, offset, out[t][s], 0, A);
+                }
+            }
+
+            @Override
+            public void onRunComplete(int i) {}
+        });
+
+        return out;
     }
 
+    /**
+     * Executes a single run.
+     * Only reads shared state, so distinct runs may execute concurrently given distinct
+     * workspaces. Heap stores are written directly, otherwise periods alternate between the
+     * workspace buffers and are copied to the store, if any. Nothing is allocated.
+     *
+     * @param i        The run index
+     * @param debug    The debug output, may be null
+     * @param w        The workspace
+     * @param store    Where to keep every period, or null to not keep them
+     * @param listener Notified of every period, may be null
+     */
+    private void simulate(int i, PrintStream debug, Workspace w, SwirlPopulationTensor store,
+                          SwirlPeriodListener listener) {
+        int P = S*A;
+        boolean keep = store != null && store.hasArray();
+        long[] dst = (keep) ? store.array() : null;
+        int dstOff = (keep) ? store.offset(i, 0) : 0;
+        long[] old, next;
+        int oldOff, nextOff;
+        SwirlKernel kernel = (mSpecialized && debug == null) ? mKernel : null;
+        boolean absorbing = mSupplement == 0; // Whether zero population is final
+        int noised = 0; // Periods with EVs generated
+        int extinct = -1; // The period from which the population is zero
+
+        //  Iteration init
+        //mT = 0;
+        w.mCensus[SwirlKernel.NF] = mNFStart;
+        w.mCensus[SwirlKernel.NRF] = mNRFStart;
+        w.mCensus[SwirlKernel.NM] = mNMStart;
+        w.mCensus[SwirlKernel.NRM] = mNRMStart;
+        //  Should we add some randomization?
+
+        //  Initial time period
+        if (keep) {
+            System.arraycopy(mInitialFlat, 0, dst, dstOff, P);
+            old = dst;
+            oldOff = dstOff;
+        } else {
+            old = mInitialFlat;
+            oldOff = 0;
+            if (store != null) store.setPeriod(i, 0, old, oldOff);
+        }
+        if (listener != null) listener.onPeriod(i, 0, old, oldOff);
+
+        next = (keep) ? dst : w.mBuffer;
+        for (int t = 1; t < T; t++) { // Transition to time t
+            nextOff = (keep) ? oldOff + P : (t & 1) * P;
 
+            if (t >= noised) { // EVs are generated a block at a time, unused after extinction
+                noised = Math.min(T, t + NOISE_BLOCK);
+                noise(i, w.mNoise, 0, t, noised);
+            }
+
+            if (kernel != null) {
+                kernel.step(old, oldOff, next, nextOff, w.mNoise, t*3, w.mCensus);
+            } else {
+                step(i, t, old, oldOff, next, nextOff, w, debug);
+            }
+
+            //  Record data
+            if (store != null && !keep) store.setPeriod(i, t, next, nextOff);
+            if (listener != null) listener.onPeriod(i, t, next, nextOff);
+
+            if (w.mCensus[SwirlKernel.NF] + w.mCensus[SwirlKernel.NM] > 0) {
+                extinct = -1;
+            } else if (extinct < 0) {
+                extinct = t;
+                if (absorbing) { // Nothing can change, so the remaining periods are all zero
+                    if (debug != null) {
+                        debug.println(i + " Extinct at t" + t);
+                        debug.flush();
+                    }
+                    fill(i, t+1, store, listener);
+                    break;
+                }
+            }
 
+            //  Prepare for next step
+            old = next;
+            oldOff = nextOff;
+        } // for t
+        //  The run is now complete
 
+        if (mExtinction != null) mExtinction[i] = extinct;
 
+        if (listener != null) listener.onRunComplete(i);
+    }
 
     /**
-     * Iterations left.
+     * Records periods from to the end of run i as all zero, without executing them.
      *
-     * @return Number of iterations to go.
+     * @param i        The run index
+     * @param from     The first period to record
+     * @param store    Where to keep every period, may be null
+     * @param listener Notified of every period, may be null
      */
-    public int iterationsLeft() {
-        return I - mI;
+    private void fill(int i, int from, SwirlPopulationTensor store,
+                      SwirlPeriodListener listener) {
+        if (from >= T) return;
+
+        if (store != null && store.hasArray()) {
+            Arrays.fill(store.array(), store.offset(i, from), store.offset(i, T-1)+S*A, 0L);
+        }
+        if (store != null && !store.hasArray()) {
+            for (int t = from; t < T; t++) store.setPeriod(i, t, mZeros, 0);
+        }
+        if (listener != null) fill(i, from, listener);
     }
 
     /**
-     * Iterations completed.
+     * Notifies the listener of periods from to the end of run i as all zero.
+     * Accumulators record them in bulk.
      *
-     * @return Number of iterations to go.
+     * @param i        The run index
+     * @param from     The first period
+     * @param listener The listener
      */
-    public int iterationsCompleted() {
-        return mI;
+    private void fill(int i, int from, SwirlPeriodListener listener) {
+        if (listener instanceof SwirlAccumulator) {
+            ((SwirlAccumulator) listener).onZeroPeriods(i, from);
+        } else if (listener instanceof ListenerPair) {
+            fill(i, from, ((ListenerPair) listener).mFirst);
+            fill(i, from, ((ListenerPair) listener).mSecond);
+        } else {
+            for (int t = from; t < T; t++) listener.onPeriod(i, t, mZeros, 0);
+        }
     }
 
     /**
-     * Is initialized
+     * Fills in the initial period and its census, for estimators that execute runs period by
+     * period, see SwirlSplitting.
      *
-     * @return Initialization state
+     * @param population Filled with the initial population, s, a
+     * @param census     Filled with its census, see SwirlKernel
      */
-    public boolean isInitialized() {
-        return mInitialized;
+    void start(long[] population, long[] census) {
+        System.arraycopy(mInitialFlat, 0, population, 0, S*A);
+        census[SwirlKernel.NF] = mNFStart;
+        census[SwirlKernel.NM] = mNMStart;
+        census[SwirlKernel.NRF] = mNRFStart;
+        census[SwirlKernel.NRM] = mNRMStart;
     }
 
     /**
-     * Is finished
+     * Transitions from any state at t-1 to t, with the EVs of run stream at period t.
+     * Distinct streams draw independently, so a run can be branched mid-way by continuing
+     * copies of its state on fresh streams.
      *
-     * @return Completion state
+     * @param stream The run index the EVs are keyed on
+     * @param t      The period being transitioned to
+     * @param old    The population at t-1, s, a
+     * @param next   Filled with the population at t, s, a
+     * @param noise  Scratch space for the EVs, at least nPeriods+1 by 3
+     * @param census The census of old, updated to that of next
      */
-    public boolean isComplete() {
-        return mCompleted;
+    void transition(int stream, int t, long[] old, long[] next, double[] noise, long[] census) {
+        noise(stream, noise, 0, t, t+1);
+        mKernel.step(old, 0, next, 0, noise, t*3, census);
     }
 
     /**
-     * Returns whether the simulation is preventing direct access to the data.
-     * Defaults to true.
+     * Executes runs first to first+n, exclusive, in lockstep.
+     * Each run makes the same draws and the same floating point operations as when executed
+     * alone, so the results are identical. Nothing is allocated.
      *
-     * @return Whether the simulation is safe.
+     * @param first    The first run index
+     * @param n        The number of runs, at most the block width
+     * @param b        The block workspace
+     * @param store    Where to keep every period, or null to not keep them
+     * @param listener Notified of every period, may be null
      */
-    public boolean isMemSafe() {
-        return mMemSafe;
+    private void simulate(int first, int n, Block b, SwirlPopulationTensor store,
+                          SwirlPeriodListener listener) {
+        int P = S*A, R = b.R;
+        long[] period = b.mPeriod;
+        long[] old = b.mPopulation, next = b.mNext, temp;
+
+        //  Iteration init
+        for (int r = 0; r < n; r++) {
+            noise(first+r, b.mNoise, r*T*3, 0, T);
+            b.nF[r] = mNFStart;
+            b.nRF[r] = mNRFStart;
+            b.nM[r] = mNMStart;
+            b.nRM[r] = mNRMStart;
+        }
+        for (int e = 0; e < P; e++) {
+            Arrays.fill(old, e*R, e*R+n, mInitialFlat[e]);
+        }
+
+        //  Initial time period
+        for (int r = 0; r < n; r++) {
+            if (store != null) store.setPeriod(first+r, 0, mInitialFlat, 0);
+            if (listener != null) listener.onPeriod(first+r, 0, mInitialFlat, 0);
+        }
+
+        int[] extinct = b.mExtinct; // The period from which each population is zero
+        Arrays.fill(extinct, -1);
+
+        for (int t = 1; t < T; t++) { // Transition to time t
+            step(n, t, old, next, b);
+
+            //  Record data, one run at a time
+            if (store != null || listener != null) {
+                for (int r = 0; r < n; r++) {
+                    for (int e = 0; e < P; e++) period[e] = next[e*R+r];
+                    if (store != null) store.setPeriod(first+r, t, period, 0);
+                    if (listener != null) listener.onPeriod(first+r, t, period, 0);
+                }
+            }
+
+            int alive = 0;
+            for (int r = 0; r < n; r++) {
+                if (b.nF[r] + b.nM[r] > 0) {
+                    extinct[r] = -1;
+                    alive++;
+                } else if (extinct[r] < 0) {
+                    extinct[r] = t;
+                }
+            }
+            if (alive == 0 && mSupplement == 0) { // Nothing can change for any run in the block
+                for (int r = 0; r < n; r++) fill(first+r, t+1, store, listener);
+                break;
+            }
+
+            //  Prepare for next step
+            temp = old;
+            old = next;
+            next = temp;
+        } // for t
+        //  The runs are now complete
+
+        if (mExtinction != null) System.arraycopy(extinct, 0, mExtinction, first, n);
+
+        if (listener != null) for (int r = 0; r < n; r++) listener.onRunComplete(first+r);
     }
 
     /**
-     * Sets the memory safety of the engine.
-     * Set to false at your own risk, and only if you are trying to minimize memory usage.
+     * Transitions a block of runs from old at t-1 to next at t, updating the block census.
+     * Entries are laid out s, a, run, so every per-age operation is a loop across runs.
+     * Mirrors step() for a single run exactly, less the debug output.
      *
-     * @param isSafe Desired safety state
+     * @param n     The number of runs
+     * @param t     The period being transitioned to
+     * @param old   Holds the populations at t-1, s, a, r
+     * @param next  Holds the populations at t, s, a, r
+     * @param b     The block workspace
      */
-    public void setMemSafe(boolean isSafe) {
-        mMemSafe = isSafe;
-    }
-
-    //  Tolerance for probability validation
-    public final static double TOLLERANCE = 1e-10;
+    private void step(int n, int t, long[] old, long[] next, Block b) {
+        int A = this.A, R = b.R;
+        boolean gendered = mGendered;
+        int rAgeF = mRAgeF;
+        int rAgeM = mRAgeM;
+        double sr = mSR;
+        double sr2 = mSR2;
+        double rVP = mRVP;
+        double[][] mortality = mMortality;
+        double[][] mortalitySD = mMortalitySD;
+        int harvest = mHarvest;
+        double[][] supplements = mSupplements;
+        long k = mK;
+        double kSD = mKSD;
+        double avgL = mAvgL;
+        double litterSum = mLitterSum;
+        double[] noise = b.mNoise;
+        double[] evR = b.mEVR, evM = b.mEVM, evK = b.mEVK, scale = b.mScale;
+        long[] nF = b.nF, nM = b.nM, nRF = b.nRF, nRM = b.nRM;
+        boolean[] capped = b.mCapped;
+        int f = 0, m = A*R; // Offsets of each gender
+        double tempD, tempF, tempM, mt, sdt, st;
+        long tempL, old0;
+
+        //  Gather this period's EVs
+        for (int r = 0, e = t*3; r < n; r++, e += T*3) {
+            evR[r] = noise[e];
+            evM[r] = noise[e+1];
+            evK[r] = noise[e+2];
+        }
 
-    //  Max / mins, possibly temporary, largely for efficiency reasons
-    public final static int    N_RUNS_MAX               = 1000;
-    public final static int    N_PERIODS_MAX            = 1000;
+        //  Reproduction
+        if (gendered) {
+            for (int r = 0; r < n; r++) {
+                next[f+r] = 0;
+                next[m+r] = 0;
+                if (nRF[r] > 0 && nRM[r] > 0) { // viability check
+                    tempF = avgL * nRF[r] * (1.0d + evR[r] * Math.sqrt(rVP / nRF[r]));
+                    tempF = Math.max(0.0d, tempF);
+                    tempM = tempF * sr;
+                    tempF *= sr2;
+                    next[f+r] = Math.round(tempF);
+                    next[m+r] = Math.round(tempM);
+                }
+            }
+        } else {
+            for (int r = 0; r < n; r++) {
+                next[f+r] = 0;
+                if (nRF[r] > 0) { // viability check
+                    tempF = litterSum * (nRF[r] * (1.0d + evR[r] * Math.sqrt(rVP / nRF[r])));
+                    tempF = Math.max(0.0d, tempF);
+                    next[f+r] = Math.round(tempF);
+                }
+            }
+        }
+
+        //  Aging, Mortality, Harvest & Supplement
+        for (int r = 0; r < n; r++) {
+            old0 = (gendered) ? nF[r] + nM[r] : nF[r];
+            scale[r] = (harvest > 0) ? (old0 > 0) ? (old0 - harvest) / (double) (old0) : 0.0d : 1.0d;
+        }
+        for (int s = 0; s < S; s++) {
+            int g = s*A*R;
+            for (int a = 0; a < A-1; a++) {
+                mt = mortality[s][a];
+                sdt = mortalitySD[s][a];
+                st = supplements[s][a];
+                int src = g + a*R, dst = src + R;
+                if (gendered) {
+                    for (int r = 0; r < n; r++) {
+                        next[dst+r] = Math.max(0L, Math.round(old[src+r] * (1.0d - (mt + sdt * evM[r])) * scale[r] + st));
+                    }
+                } else {
+                    for (int r = 0; r < n; r++) {
+                        next[dst+r] = Math.max(0L, Math.round(old[src+r] * (mt + sdt * evM[r]) * scale[r] + st));
+                    }
+                }
+            }
+        }
+
+        census(n, next, b);
+
+        // Carrying Capacity
+        boolean any = false;
+        for (int r = 0; r < n; r++) {
+            tempD = Math.max(0.0d, k+kSD*evK[r]);
+            tempL = Math.round(tempD);
+            old0 = (gendered) ? nF[r] + nM[r] : nF[r];
+            if (gendered) {
+                capped[r] = old0 > tempL;
+                scale[r] = (old0 > 0) ? tempD / old0 : 0.0d;
+            } else {
+                capped[r] = true; // Always rescaled
+                scale[r] = (old0 > tempL) ? (old0 > 0) ? tempD / old0 : 0.0d : tempD;
+            }
+            any |= capped[r];
+        }
+        if (any) {
+            for (int e = 0, end = S*A*R; e < end; e += R) {
+                for (int r = 0; r < n; r++) {
+                    if (capped[r]) next[e+r] = Math.round(next[e+r] * scale[r]);
+                }
+            }
+
+            //  Redo census
+            census(n, next, b);
+        }
+    }
+
+    /**
+     * Recounts the block census from the populations.
+     *
+     * @param n    The number of runs
+     * @param next Holds the populations, s, a, r
+     * @param b    The block workspace
+     */
+    private void census(int n, long[] next, Block b) {
+        int R = b.R;
+        long[] nF = b.nF, nM = b.nM, nRF = b.nRF, nRM = b.nRM;
+
+        Arrays.fill(nF, 0L);
+        Arrays.fill(nRF, 0L);
+        for (int a = 0, e = 0; a < A; a++, e += R) {
+            for (int r = 0; r < n; r++) nF[r] += next[e+r];
+            if (a >= mRAgeF) for (int r = 0; r < n; r++) nRF[r] += next[e+r];
+        }
+
+        if (mGendered) {
+            Arrays.fill(nM, 0L);
+            Arrays.fill(nRM, 0L);
+            for (int a = 0, e = A*R; a < A; a++, e += R) {
+                for (int r = 0; r < n; r++) nM[r] += next[e+r];
+                if (a >= mRAgeM) for (int r = 0; r < n; r++) nRM[r] += next[e+r];
+            }
+        }
+    }
+
+    /**
+     * Transitions a run from old at t-1 to next at t, updating the workspace census.
+     * Every entry of the next period is overwritten.
+     *
+     * @param i       The run index
+     * @param t       The period being transitioned to
+     * @param old     Holds the population at t-1, s, a
+     * @param oldOff  The offset of the population in old
+     * @param next    Holds the population at t, s, a
+     * @param nextOff The offset of the population in next
+     * @param w       The workspace
+     * @param debug   The debug output, may be null
+     */
+    private void step(int i, int t, long[] old, int oldOff, long[] next, int nextOff,
+                      Workspace w, PrintStream debug) {
+        //  I think it is faster to have local variables...
+        int A = this.A;
+        boolean gendered = mGendered;
+        int rAgeF = mRAgeF;
+        int rAgeM = mRAgeM;
+        double sr = mSR;
+        double sr2 = mSR2;
+        final int evR = 0, evM = 1, evK = 2, evs = 3; // Indices
+        double[] ev = w.mNoise; // This run's EVs, t, ev
+        int e = t*evs; // This period's EVs
+        double[] litters = mLitters;
+        int L = litters.length; // mParameters.getMaxLitterSize()+1;
+        double rVP = mRVP;
+        double[][] mortality = mMortality;
+        double[][] mortalitySD = mMortalitySD;
+        int harvest = mHarvest;
+        double[][] supplements = mSupplements;
+        long k = mK;
+        double kSD = mKSD;
+        double avgL = mAvgL;
+
+        //  Counters
+        long[] census = w.mCensus;
+        long nF = census[SwirlKernel.NF], nM = census[SwirlKernel.NM];
+        long nRF = census[SwirlKernel.NRF], nRM = census[SwirlKernel.NRM];
+
+        //  Offsets of each gender
+        int fOld = oldOff, mOld = oldOff + A;
+        int f = nextOff, m = nextOff + A;
+        long tempL;
+        double tempD, tempF, tempM;
+
+        if (debug != null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append(i).append(", t").append(t-1).append(": \n\t")
+              .append(Arrays.toString(Arrays.copyOfRange(old, fOld, fOld+A)));
+            if (gendered) sb.append("\n\t").append(Arrays.toString(Arrays.copyOfRange(old, mOld, mOld+A)));
+            sb.append("\n\t t").append(t).append(": evs: ").append(Arrays.toString(Arrays.copyOfRange(ev, e, e+evs)));
+            debug.println(sb);
+            debug.flush();
+        }
+
+        next[f] = 0;
+
+        //  Reproduction
+        if (gendered) {
+            next[m] = 0;
+            if (nRF > 0 && nRM > 0) { // viability check
+                //  Multiply by reproductive population & ev effect
+                //(1.0d + Math.exp(ev[e+evR] * ev[e+evR] / -2.0d) *Math.signum(ev[e+evR]));
+                tempF = avgL * nRF * (1.0d + ev[e+evR] * Math.sqrt(rVP / nRF));
+                tempF = Math.max(0.0d, tempF); // Check and remove negatives
+                tempM = tempF; // Prepare for sex ratio
+                tempM *= sr; // Sex ratio applied
+                tempF *= sr2; // TODO: variation in sex ratio?
+
+                //  Assign the pops
+                next[f] = Math.round(tempF);
+                next[m] = Math.round(tempM);
+            }
+        } else {
+            if (nRF > 0) { // viability check
+                tempF = 0.0d;
+                for (int l = 1; l < L; l++) {
+                    tempF += l * litters[l];
+                }
+                //  Multiply by reproductive population & ev effect
+                tempF *= nRF * (1.0d + ev[e+evR] * Math.sqrt(rVP / nRF));
+                tempF = Math.max(0.0d, tempF); // Check and remove negatives
+
+                //  Assign the pops
+                next[f] = Math.round(tempF);
+            }
+        }
+        //  Now temp has the age 0 set pre mortality
+        if (debug != null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Reproducing to: ").append(next[f]);
+            if (gendered) sb.append(" and ").append(next[m]);
+            debug.println(sb);
+            debug.flush();
+        }
+
+        //  Aging, Mortality, Harvest & Supplement
+        if (gendered) {
+            tempD = (harvest > 0) ? (nF + nM > 0) ? (nF + nM - harvest) / (double) (nF + nM) : 0.0d : 1.0d;
+            for (int a = A-2; a >= 0; a--) {
+                next[f+a+1] = Math.max(0L, Math.round(old[fOld+a] * (1.0d - (mortality[0][a] + mortalitySD[0][a] * ev[e+evM])) * tempD + supplements[0][a]));
+                next[m+a+1] = Math.max(0L, Math.round(old[mOld+a] * (1.0d - (mortality[1][a] + mortalitySD[1][a] * ev[e+evM])) * tempD + supplements[1][a]));
+            }
+        } else {
+            tempD = (harvest > 0) ? (nF > 0) ? (nF - harvest) / (double) (nF) : 0.0d : 1.0d;
+            for (int a = A-2; a >= 0; a--) {
+                next[f+a+1] = Math.max(0L, Math.round(old[fOld+a] * (mortality[0][a] + mortalitySD[0][a] * ev[e+evM]) * tempD + supplements[0][a]));
+            }
+        }
+        if (debug != null) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Aging to: \n\t").append(Arrays.toString(Arrays.copyOfRange(next, f, f+A)));
+            if (gendered) sb.append("\n\t").append(Arrays.toString(Arrays.copyOfRange(next, m, m+A)));
+            debug.println(sb);
+            debug.flush();
+        }
+
+        // Census
+        nF = nRF = 0;
+        for (int a = 0; a < rAgeF; a++) {
+            nF += next[f+a];
+        }
+        for (int a = rAgeF; a < A; a++) {
+            nF += next[f+a];
+            nRF += next[f+a];
+        }
+
+        if (gendered) {
+            nM = nRM = 0;
+            for (int a = 0; a < rAgeM; a++) {
+                nM += next[m+a];
+            }
+            for (int a = rAgeM; a < A; a++) {
+                nM += next[m+a];
+                nRM += next[m+a];
+            }
+        }
+
+        // Carrying Capacity
+        tempD = Math.max(0.0d, k+kSD*ev[e+evK]);
+        tempL = Math.round(tempD);
+        if (gendered) {
+            if (nF + nM > tempL) {
+                tempD = (nF + nM > 0) ? tempD / (nF + nM) : 0.0d;
+                for (int a = 0; a < A; a++) {
+                    next[f+a] = Math.round(next[f+a] * tempD);
+                    next[m+a] = Math.round(next[m+a] * tempD);
+                }
+
+                //  Redo census
+                nF = nRF = nM = nRM = 0;
+                for (int a = 0; a < rAgeF; a++) {
+                    nF += next[f+a];
+                }
+                for (int a = rAgeF; a < A; a++) {
+                    nF += next[f+a];
+                    nRF += next[f+a];
+                }
+                for (int a = 0; a < rAgeM; a++) {
+                    nM += next[m+a];
+                }
+                for (int a = rAgeM; a < A; a++) {
+                    nM += next[m+a];
+                    nRM += next[m+a];
+                }
+
+                if (debug != null) {
+                    StringBuilder sb = new StringBuilder();
+                    sb.append("K(").append(k+kSD*ev[e+evK]).append("->").append(tempD).append(") to: \n\t").append(Arrays.toString(Arrays.copyOfRange(next, f, f+A)));
+                    sb.append("\n\t").append(Arrays.toString(Arrays.copyOfRange(next, m, m+A)));
+                    debug.println(sb);
+                    debug.flush();
+                }
+            }
+        } else {
+            if (nF > tempL) {
+                tempD = (nF > 0) ? tempD / (nF) : 0.0d;
+            }
+            for (int a = 0; a < A; a++) {
+                next[f+a] = Math.round(next[f+a] * tempD);
+            }
+
+            //  Redo census
+            nF = nRF = 0;
+            for (int a = 0; a < rAgeF; a++) {
+                nF += next[f+a];
+            }
+            for (int a = rAgeF; a < A; a++) {
+                nF += next[f+a];
+                nRF += next[f+a];
+            }
+
+            if (debug != null) {
+                StringBuilder sb = new StringBuilder();
+                sb.append("K(").append(tempD).append(") to: \n\t").append(Arrays.toString(Arrays.copyOfRange(next, f, f+A)));
+                debug.println(sb);
+                debug.flush();
+            }
+        }
+
+        census[SwirlKernel.NF] = nF;
+        census[SwirlKernel.NM] = nM;
+        census[SwirlKernel.NRF] = nRF;
+        census[SwirlKernel.NRM] = nRM;
+    }
+
+    /**
+     * Per thread scratch space for executing runs.
+     */
+    private class Workspace {
+        final long[]   mBuffer = new long[2*S*A]; // Two periods, alternated between
+        final double[] mNoise  = new double[T*3]; // The current run's EVs, t, ev
+        final long[]   mCensus = new long[SwirlKernel.CENSUS]; // Of the latest period
+    }
+
+    /**
+     * Per thread scratch space for executing a block of runs in lockstep.
+     */
+    private class Block {
+        final int      R; // Block width
+        final long[]   mPopulation, mNext; // s, a, r
+        final long[]   mPeriod; // One run's period, s, a
+        final double[] mNoise; // Each run's EVs, r, t, ev
+        final double[] mEVR, mEVM, mEVK, mScale;
+        final boolean[] mCapped;
+        final int[]    mExtinct; // r
+        final long[]   nF, nM, nRF, nRM; // Census of the latest period, r
+
+        Block(int R) {
+            this.R = R;
+            mPopulation = new long[S*A*R];
+            mNext = new long[S*A*R];
+            mPeriod = new long[S*A];
+            mNoise = new double[R*T*3];
+            mEVR = new double[R];
+            mEVM = new double[R];
+            mEVK = new double[R];
+            mScale = new double[R];
+            mCapped = new boolean[R];
+            mExtinct = new int[R];
+            nF = new long[R];
+            nM = new long[R];
+            nRF = new long[R];
+            nRM = new long[R];
+        }
+    }
+
+    /**
+     * Splits a range of runs across the pool, keeping antithetic pairs together.
+     */
+    private class RunTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mFirst, mLast, mGrain;
+        private final Watermark mWatermark;
+
+        RunTask(int first, int last, int grain, Watermark watermark) {
+            mFirst = first;
+            mLast = last;
+            mGrain = grain;
+            mWatermark = watermark;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst <= mGrain || mAntithetic && mLast - mFirst < 4) {
+                simulate(mFirst, mLast, null, mWatermark);
+            } else {
+                int mid = (mFirst + mLast) >>> 1;
+                if (mAntithetic) mid = mFirst + (((mLast - mFirst) >>> 1) & ~1);
+                invokeAll(new RunTask(mFirst, mid, mGrain, mWatermark),
+                          new RunTask(mid, mLast, mGrain, mWatermark));
+            }
+        }
+    }
+
+    /**
+     * Publishes the runs of a pooled iterate call, which complete out of order, as the prefix
+     * of runs that are all complete. Each run's writes precede its worker's lock release, and
+     * the lock precedes the volatile write of mI, so readers see every run it counts.
+     */
+    private class Watermark {
+        private final int       mFirst;
+        private final boolean[] mDone; // Runs from mFirst
+        private int             mNext = 0; // The first incomplete run, from mFirst
+
+        Watermark(int first, int last) {
+            mFirst = first;
+            mDone = new boolean[last - first];
+        }
+
+        /**
+         * Marks runs first to last, exclusive, complete and publishes any prefix they finish.
+         */
+        synchronized void complete(int first, int last) {
+            Arrays.fill(mDone, first - mFirst, last - mFirst, true);
+            if (mDone[mNext]) {
+                while (mNext < mDone.length && mDone[mNext]) mNext++;
+                mI = mFirst + mNext; // Only written here while the pool runs, so never decreases
+            }
+        }
+    }
+
+    /**
+     * Notifies two listeners in turn.
+     */
+    private static class ListenerPair implements SwirlPeriodListener {
+        private final SwirlPeriodListener mFirst, mSecond;
+
+        ListenerPair(SwirlPeriodListener first, SwirlPeriodListener second) {
+            mFirst = first;
+            mSecond = second;
+        }
+
+        @Override
+        public void onPeriod(int i, int t, long[] population, int offset) {
+            mFirst.onPeriod(i, t, population, offset);
+            mSecond.onPeriod(i, t, population, offset);
+        }
+
+        @Override
+        public void onRunComplete(int i) {
+            mFirst.onRunComplete(i);
+            mSecond.onRunComplete(i);
+        }
+    }
+    /**
+     * Returns all data from first to current, inclusive.
+     *
+     * @param first Number of first iteration to return
+     *
+     * @return The data from first to current
+     */
+    public long[][][][] getData(int first) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        int published = mI;
+        if (first < 0 || first >= published) {
+            return null;
+            //throw new InvalidParameterException("Invalid entry: "+first);
+        }
+
+        int l = published-first;
+        long[][][][] output = new long[l][][][];
+        for (int j = 0; j < l; j++) output[j] = getRun(first+j);
+        return output;
+    }
+
+    /**
+     * Returns the data from first to last.
+     *
+     * @param first
+     * @param last
+     *
+     * @return
+     */
+    public long[][][][] getData(int first, int last) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        int published = mI;
+        if (first < 0 || first >= published) {
+            throw new InvalidParameterException("Invalid entry: "+first);
+        }
+        if (last <= first || last > published) {
+            throw new InvalidParameterException("Invalid entry: "+last);
+        }
+
+        int l = last-first;
+        long[][][][] output = new long[l][][][];
+        for (int j = 0; j < l; j++) output[j] = getRun(first+j);
+        return output;
+    }
+
+    /**
+     * Returns a view of the stored data from first to last, exclusive, without copying it.
+     * When the parameters are deterministic every run is the same shared heap run, see
+     * SwirlPopulationTensor.shared, whatever the storage set.
+     *
+     * @param first The first run
+     * @param last  The run after the last
+     *
+     * @return The view, or null if the data is not being kept
+     */
+    public SwirlPopulationTensor getDataTensor(int first, int last) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        int published = mI;
+        if (first < 0 || first >= published) {
+            throw new InvalidParameterException("Invalid entry: "+first);
+        }
+        if (last <= first || last > published) {
+            throw new InvalidParameterException("Invalid entry: "+last);
+        }
+
+        SwirlPopulationTensor data = mPopulationData;
+        return (data == null) ? null : data.view(first, last);
+    }
+
+    /**
+     * Returns a copy of a single completed run, regenerating it if it was dropped.
+     *
+     * @param i The run index
+     *
+     * @return The run's data, t, s, a
+     */
+    public long[][][] getRun(int i) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        if (i < 0 || i >= mI) {
+            throw new InvalidParameterException("Invalid entry: "+i);
+        }
+
+        SwirlPopulationTensor data = mPopulationData; // Regenerated if dropped meanwhile
+        return (data != null && mStored[i]) ? data.getRun(i) : simulate(i, null);
+    }
+
+    /**
+     * Returns the period from which a completed run's population is zero through the end.
+     * Without supplementation a zero population is final, so its remaining periods are
+     * recorded as zero without being executed. A run that keeps individuals but loses every
+     * reproductive one of some gender is extinct by SwirlOutputBundle.getExtinctionPercent,
+     * yet has no zero population period.
+     *
+     * @param i The run index
+     *
+     * @return The first period of zero population through the end, or -1 if there is none
+     */
+    public int getZeroPopulationTime(int i) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        if (i < 0 || i >= mI) {
+            throw new InvalidParameterException("Invalid entry: "+i);
+        }
+
+        return mExtinction[i];
+    }
+
+    /**
+     * @return The zero population period of every completed run, or -1 for those with
+     *         individuals left, see getZeroPopulationTime
+     */
+    public int[] getZeroPopulationTimes() {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+
+        return Arrays.copyOf(mExtinction, mI);
+    }
+
+    /**
+     * Releases the stored data from first to last, exclusive.
+     * Dropped runs are regenerated on demand by getRun and getData. The storage itself is
+     * released once every run has been dropped.
+     *
+     * @param first The first run to drop
+     * @param last  The run after the last to drop
+     */
+    public void dropData(int first, int last) {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        if (first < 0 || first > mI) {
+            throw new InvalidParameterException("Invalid entry: "+first);
+        }
+        if (last < first || last > mI) {
+            throw new InvalidParameterException("Invalid entry: "+last);
+        }
+
+        Arrays.fill(mStored, first, last, false);
+
+        for (boolean stored : mStored) if (stored) return;
+        mPopulationData = null;
+    }
+
+    /**
+     * Currently does nothing, here because it might be required for future additions.
+     *
+     * @return success
+     */
+    public boolean complete() {
+        return true;
+    }
+
+    //  Checkpoints
+
+    public final static int CHECKPOINT_BATCH = 100; // Runs per thread between checks
+
+    /**
+     * Finishes a simulation, writing a checkpoint whenever the interval has passed and once
+     * complete, so a job that dies can continue from the last with resume. Runs execute in
+     * batches of CHECKPOINT_BATCH per pool thread, an even number so antithetic pairs are never
+     * split, and the results are identical to completeTensor().
+     *
+     * @param file     The checkpoint, see checkpoint
+     * @param interval The least time between checkpoints in milliseconds
+     *
+     * @return The results, or null if the data is not being kept
+     *
+     * @throws IOException If a checkpoint cannot be written
+     */
+    public SwirlPopulationTensor completeTensor(File file, long interval) throws IOException {
+        if (!mInitialized) initialize();
+
+        int batch = CHECKPOINT_BATCH * ((mPool == null) ? 1 : mPool.getParallelism());
+        long last = System.nanoTime();
+        while (!mCompleted) {
+            iterate(Math.min(batch, iterationsLeft()));
+            if (mCompleted || System.nanoTime() - last >= interval * 1000000L) {
+                checkpoint(file);
+                last = System.nanoTime();
+            }
+        }
+
+        complete();
+
+        return mPopulationData;
+    }
+
+    /**
+     * Writes a checkpoint of the completed runs, from which resume continues exactly. Call from
+     * the driving thread between iterations.
+     * <p>
+     * The checkpoint is two files. The state, the parameters, seed, source of EVs, settings, the
+     * number of completed runs and the output's sums, is rewritten whole each time: written to
+     * a temporary file, forced to disk, then moved over the last. Its size does not depend on
+     * the number of runs. The runs' zero population periods, and their data when kept, are appended
+     * to a log beside it, file.runs, as variable-length integers in checksummed chunks, so each
+     * checkpoint only writes the runs completed since the last. The EVs are keyed on the seed,
+     * so no generator state is needed beyond the source's configuration.
+     * <p>
+     * The listener, pool and storage are not saved. An antithetic pair split between two
+     * iterations is not paired, checkpoint or not.
+     *
+     * @param file The state file, its log is file.runs
+     *
+     * @throws IOException If it cannot be written, the last checkpoint is still whole
+     */
+    public void checkpoint(File file) throws IOException {
+        if (!mInitialized) {
+            throw new IllegalStateException("Not initialized");
+        }
+        if (!isCheckpointSource(mGenerator)) {
+            throw new IllegalStateException("Unsupported source: " + mGenerator);
+        }
+
+        File log = runLog(file);
+        int completed = mI;
+        if (!file.equals(mCheckpointFile) || log.length() != mCheckpointLog ||
+            mCheckpointRuns > completed) { // Start the log over
+            mCheckpointFile = null;
+            mCheckpointRuns = 0;
+            mCheckpointLog = 0L;
+        }
+
+        if (completed > mCheckpointRuns || mCheckpointFile == null) {
+            FileOutputStream stream = new FileOutputStream(log, mCheckpointFile != null);
+            try {
+                CheckedOutputStream checked = new CheckedOutputStream(
+                        new BufferedOutputStream(stream, 1 << 16), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                if (completed > mCheckpointRuns) {
+                    writeRuns(out, checked, mCheckpointRuns, completed);
+                }
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+        }
+        long logLength = log.length();
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                CheckedOutputStream checked =
+                        new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                writeState(out, completed, logLength);
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+            SwirlResultStore.replace(temp, file);
+        } finally {
+            if (temp.exists() && !temp.delete()) temp.deleteOnExit();
+        }
+
+        mCheckpointFile = file;
+        mCheckpointRuns = completed;
+        mCheckpointLog = logLength;
+    }
+
+    /**
+     * Creates an engine from a checkpoint, initialized with its completed runs, its settings and
+     * an output holding their statistics if one was set. Later checkpoints to the same file
+     * append to its log. Set a listener, pool or storage before continuing as needed, the data
+     * of completed runs is already stored in the default storage.
+     *
+     * @param file The state file, see checkpoint
+     *
+     * @return The engine, continuing from the checkpoint
+     *
+     * @throws IOException If it cannot be read, or is damaged
+     */
+    public static SwirlEngine resume(File file) throws IOException {
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                throw new IOException("Not a checkpoint: " + file);
+            }
+            int length = in.readInt();
+            if (length < 0 || length > file.length()) throw new IOException("Invalid parameters");
+            byte[] encoding = new byte[length];
+            in.readFully(encoding);
+            SwirlParameterBundle parameters = SwirlParameterBundle.fromBytes(encoding);
+            if (parameters == null || !parameters.isValid()) {
+                throw new IOException("Invalid parameters");
+            }
+
+            SwirlEngine engine = new SwirlEngine(parameters, in.readLong());
+            int source = in.readByte();
+            long sourceSeed = in.readLong();
+            int sourcePeriods = in.readInt(), sourceReplicates = in.readInt();
+            engine.mKeepData = in.readBoolean();
+            engine.mAntithetic = in.readBoolean();
+            engine.mSpecialized = in.readBoolean();
+            engine.setLockstep(in.readInt());
+            int completed = in.readInt();
+            long logLength = in.readLong();
+            SwirlAccumulator sums = null;
+            if (in.readBoolean()) {
+                sums = SwirlAccumulator.read(in, parameters, file.length());
+                sums.mNRuns = in.readInt();
+                sums.mNExtinct = in.readInt();
+            }
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum || in.read() != -1) {
+                throw new IOException("Damaged checkpoint: " + file);
+            }
+            if (completed < 0 || completed > engine.I || logLength < 0L ||
+                (sums != null && (sums.mNRuns != completed || sums.mNExtinct < 0 ||
+                                  sums.mNExtinct > completed))) {
+                throw new IOException("Invalid runs: " + completed);
+            }
+
+            switch (source) {
+                case SOURCE_DEFAULT:
+                    break;
+                case SOURCE_ZIGGURAT:
+                    engine.mNormalSource = new SwirlZiggurat(sourceSeed);
+                    break;
+                case SOURCE_RANDOM:
+                    engine.mNormalSource = new SwirlRandom(sourceSeed);
+                    break;
+                case SOURCE_SOBOL:
+                    engine.mNormalSource =
+                            new SwirlSobol(sourceSeed, sourcePeriods, sourceReplicates);
+                    break;
+                default:
+                    throw new IOException("Invalid source: " + source);
+            }
+
+            engine.initialize();
+            if (sums != null) {
+                SwirlOutputBundle output = new SwirlOutputBundle(parameters, engine.mKeepData);
+                output.setReplicates(sums.R);
+                if (sums.mNRuns > 0) output.addStatistics(sums);
+                engine.mOutput = output;
+            }
+            engine.readRuns(runLog(file), completed, logLength);
+            if (engine.mDeterministic && completed > 0) {
+                engine.trajectory(0, null);
+                Arrays.fill(engine.mStored, 0, completed, engine.mKeepData);
+            }
+
+            engine.mI = completed;
+            engine.mCompleted = completed == engine.I;
+            if (engine.mOutput != null && engine.mKeepData) {
+                engine.mOutput.shareData(engine.mPopulationData);
+            }
+            engine.mCheckpointFile = file;
+            engine.mCheckpointRuns = completed;
+            engine.mCheckpointLog = logLength;
+            return engine;
+        } catch (RuntimeException e) { // Inconsistent lengths or settings
+            throw new IOException("Damaged checkpoint: " + file, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return The log of a checkpoint's runs
+     */
+    private static File runLog(File file) {
+        return new File(file.getPath() + ".runs");
+    }
+
+    /**
+     * @return Whether a source is one a checkpoint can recreate
+     */
+    private static boolean isCheckpointSource(SwirlNormalSource source) {
+        return source instanceof SwirlZiggurat || source instanceof SwirlRandom ||
+               source instanceof SwirlSobol;
+    }
+
+    private void writeState(DataOutputStream out, int completed, long logLength)
+            throws IOException {
+        byte[] encoding = mParameters.toBytes();
+        out.writeInt(CHECKPOINT_MAGIC);
+        out.writeInt(CHECKPOINT_VERSION);
+        out.writeInt(encoding.length);
+        out.write(encoding);
+        out.writeLong(mSeed);
+        writeSource(out);
+        out.writeBoolean(mKeepData);
+        out.writeBoolean(mAntithetic);
+        out.writeBoolean(mSpecialized);
+        out.writeInt(mLockstep);
+        out.writeInt(completed);
+        out.writeLong(logLength);
+        out.writeBoolean(mOutput != null);
+        if (mOutput != null) {
+            SwirlAccumulator sums = mOutput.toSums();
+            sums.write(out);
+            out.writeInt(sums.mNRuns);
+            out.writeInt(sums.mNExtinct);
+        }
+    }
+
+    /**
+     * Writes the configured source of EVs: its kind, seed, then its periods and replicates if a
+     * SwirlSobol, otherwise zeros.
+     */
+    private void writeSource(DataOutputStream out) throws IOException {
+        SwirlNormalSource source = mNormalSource;
+        if (source == null) {
+            out.writeByte(SOURCE_DEFAULT);
+            out.writeLong(mSeed);
+            out.writeInt(0);
+            out.writeInt(0);
+        } else if (source instanceof SwirlSobol) {
+            SwirlSobol sobol = (SwirlSobol) source;
+            out.writeByte(SOURCE_SOBOL);
+            out.writeLong(sobol.getSeed());
+            out.writeInt(sobol.getDimensions() / 3);
+            out.writeInt(sobol.getReplicates());
+        } else {
+            out.writeByte((source instanceof SwirlRandom) ? SOURCE_RANDOM : SOURCE_ZIGGURAT);
+            out.writeLong((source instanceof SwirlRandom) ? ((SwirlRandom) source).getSeed() :
+                          ((SwirlZiggurat) source).getSeed());
+            out.writeInt(0);
+            out.writeInt(0);
+        }
+    }
+
+    /**
+     * What decides the draws besides the parameters and seed: the source of EVs and whether
+     * runs are antithetic. Engines with the same parameters, seed and configuration produce
+     * identical results, see SwirlResultCache. Only the built in sources can be identified.
+     *
+     * @return The configuration, empty for the default, a ziggurat on the seed without pairs,
+     *         or null for any other source
+     */
+    byte[] getDrawConfiguration() {
+        SwirlNormalSource source = mNormalSource;
+        if (source != null && !isCheckpointSource(source)) return null;
+        if (!mAntithetic && (source == null || (source instanceof SwirlZiggurat &&
+                                                ((SwirlZiggurat) source).getSeed() == mSeed))) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeSource(out);
+            out.writeBoolean(mAntithetic);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by byte arrays
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Appends a chunk of runs to a log: their number, each run's zero population period, then its
+     * populations if kept, all as variable-length integers, then the chunk's checksum.
+     */
+    private void writeRuns(DataOutputStream out, CheckedOutputStream checked, int first,
+                           int last) throws IOException {
+        boolean data = mKeepData && !mDeterministic;
+        checked.getChecksum().reset();
+        out.writeInt(last - first);
+        for (int i = first; i < last; i++) {
+            writeVarLong(out, mExtinction[i] + 1L);
+            if (data) {
+                for (long[][] period : getRun(i)) {
+                    for (long[] gender : period) for (long n : gender) writeVarLong(out, n);
+                }
+            }
+        }
+        out.writeLong(checked.getChecksum().getValue());
+    }
+
+    /**
+     * Reads the log of a checkpoint's runs into the engine, dropping anything appended after it.
+     */
+    private void readRuns(File log, int completed, long length) throws IOException {
+        if (log.length() < length) throw new IOException("Truncated log: " + log);
+        RandomAccessFile raf = new RandomAccessFile(log, "rw");
+        try {
+            raf.setLength(length);
+        } finally {
+            raf.close();
+        }
+
+        boolean data = mKeepData && !mDeterministic;
+        long[][][] run = (data) ? new long[T][S][A] : null;
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(log), 1 << 16), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            int i = 0;
+            while (i < completed) {
+                checked.getChecksum().reset();
+                int n = in.readInt();
+                if (n < 1 || n > completed - i) throw new IOException("Invalid log: " + log);
+                for (int end = i + n; i < end; i++) {
+                    mExtinction[i] = (int) readVarLong(in) - 1;
+                    if (data) {
+                        for (long[][] period : run) {
+                            for (long[] gender : period) {
+                                for (int a = 0; a < A; a++) gender[a] = readVarLong(in);
+                            }
+                        }
+                        mPopulationData.setRun(i, run);
+                        mStored[i] = true;
+                    }
+                }
+                long checksum = checked.getChecksum().getValue();
+                if (in.readLong() != checksum) throw new IOException("Damaged log: " + log);
+            }
+            if (in.read() != -1) throw new IOException("Invalid log: " + log);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes an unsigned variable-length integer, seven bits a byte, least significant first.
+     */
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) (value & 0x7FL) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Invalid integer");
+    }
+
+
+
+
+
+
+    /**
+     * Iterations left.
+     *
+     * @return Number of iterations to go.
+     */
+    public int iterationsLeft() {
+        return I - mI;
+    }
+
+    /**
+     * Iterations completed.
+     *
+     * @return Number of iterations to go.
+     */
+    public int iterationsCompleted() {
+        return mI;
+    }
+
+    /**
+     * Is initialized
+     *
+     * @return Initialization state
+     */
+    public boolean isInitialized() {
+        return mInitialized;
+    }
+
+    /**
+     * Is finished
+     *
+     * @return Completion state
+     */
+    public boolean isComplete() {
+        return mCompleted;
+    }
+
+    /**
+     * Returns whether the simulation is preventing direct access to the data.
+     * Defaults to true.
+     *
+     * @return Whether the simulation is safe.
+     */
+    public boolean isMemSafe() {
+        return mMemSafe;
+    }
+
+    /**
+     * Sets the memory safety of the engine.
+     * Set to false at your own risk, and only if you are trying to minimize memory usage.
+     *
+     * @param isSafe Desired safety state
+     */
+    public void setMemSafe(boolean isSafe) {
+        mMemSafe = isSafe;
+    }
+
+    /**
+     * The seed, every draw is keyed on it.
+     *
+     * @return The seed
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * The parameters used to define the simulation.
+     *
+     * @return The parameters
+     */
+    public SwirlParameterBundle getParameters() {
+        return mParameters;
+    }
+
+    /**
+     * The pool runs are spread across, null when running serially.
+     *
+     * @return The pool
+     */
+    public ForkJoinPool getPool() {
+        return mPool;
+    }
+
+    /**
+     * Sets the pool used to execute runs in parallel, or null to run serially (the default).
+     * Results do not depend on the pool or its parallelism.
+     *
+     * @param pool The pool to use
+     */
+    public void setPool(ForkJoinPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Returns whether every period of every run is stored as it is executed.
+     * Defaults to true.
+     *
+     * @return Whether the data is kept
+     */
+    public boolean isKeepingData() {
+        return mKeepData;
+    }
+
+    /**
+     * Sets whether every period of every run is stored as it is executed.
+     * When not kept, runs execute without allocating, their periods are only seen by the
+     * listener, and getData regenerates them on demand.
+     *
+     * @param keep Desired state
+     */
+    public void setKeepData(boolean keep) {
+        mKeepData = keep;
+    }
+
+    /**
+     * @return Where the data is kept, null if chosen by size
+     */
+    public SwirlPopulationTensor.Storage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * Sets where the data is kept, takes effect when the storage is next created.
+     * By default small results are kept on the heap and large ones off the heap. It is ignored
+     * when the parameters are deterministic, see SwirlParameterBundle.isDeterministic, whose
+     * runs all share a single run on the heap, so nothing is mapped or allocated per run.
+     *
+     * @param storage Where to keep the data, or null to choose by size
+     * @param file    The file to map for MAPPED storage, or null for a temporary file
+     */
+    public void setStorage(SwirlPopulationTensor.Storage storage, File file) {
+        mStorage = storage;
+        mStorageFile = file;
+    }
+
+    /**
+     * @return The listener notified of each period, may be null
+     */
+    public SwirlPeriodListener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Sets the listener notified of each period as runs execute.
+     *
+     * @param listener The listener, or null for none
+     */
+    public void setListener(SwirlPeriodListener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @return The configured source of environmental variation, null if the default
+     */
+    public SwirlNormalSource getNormalSource() {
+        return mNormalSource;
+    }
+
+    /**
+     * Sets the source of the environmental variation draws, takes effect on initialization.
+     * By default a SwirlZiggurat keyed on the seed, a SwirlRandom on the same seed gives the
+     * same distribution via Box-Muller. A SwirlSobol gives randomized quasi-Monte Carlo runs,
+     * whose replicates the output's statistics follow. A source given here brings its own
+     * seed. A SwirlSobol must have been created for the parameters' number of periods.
+     *
+     * @param source The source, or null for the default
+     */
+    public void setNormalSource(SwirlNormalSource source) {
+        mNormalSource = source;
+    }
+
+    /**
+     * @return Whether runs step with the kernel specialized to the parameters
+     */
+    public boolean isSpecialized() {
+        return mSpecialized;
+    }
+
+    /**
+     * Sets whether runs step with a SwirlKernel specialized to the parameters' configuration,
+     * chosen on initialization, or with the reference step, which tests the configuration every
+     * period. Both give identical results, debug output always uses the reference step.
+     * Defaults to specialized unless the system property swirl.kernel is "scalar".
+     *
+     * @param specialized Desired state
+     */
+    public void setSpecialized(boolean specialized) {
+        mSpecialized = specialized;
+    }
+
+    /**
+     * @return The number of runs advanced together, 1 if runs execute one at a time
+     */
+    public int getLockstep() {
+        return mLockstep;
+    }
+
+    /**
+     * Sets the number of runs advanced together. Runs in a block are laid out age by age, so
+     * every per-age operation is a loop across runs, which makes use of the vector lanes that
+     * the few age classes leave idle. Each run still makes its own draws and the results are
+     * identical to executing runs one at a time. Debug output always executes one at a time.
+     *
+     * @param runs The block width, 1 for one at a time
+     */
+    public void setLockstep(int runs) {
+        if (runs < 1) {
+            throw new InvalidParameterException("Invalid block width: "+runs);
+        }
+        mLockstep = runs;
+    }
+
+    /**
+     * @return Whether runs are executed in antithetic pairs
+     */
+    public boolean isAntithetic() {
+        return mAntithetic;
+    }
+
+    /**
+     * Sets whether runs are executed in antithetic pairs. Each odd run uses the negated EVs of
+     * the even run before it, so the pair's deviations tend to cancel and mean trajectories
+     * are estimated with less variance, see SwirlOutputBundle.getVarianceReduction. Set before
+     * executing any runs, and prefer an even number of runs.
+     *
+     * @param antithetic Desired state
+     */
+    public void setAntithetic(boolean antithetic) {
+        mAntithetic = antithetic;
+    }
+
+    /**
+     * @return The output the statistics are streamed to, may be null
+     */
+    public SwirlOutputBundle getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * Sets an output whose statistics are accumulated as runs execute, rather than from the
+     * stored data afterwards. Each thread accumulates its own runs and adds them when done.
+     * With setKeepData(false) runs are never stored, so memory does not depend on the number
+     * of runs.
+     *
+     * @param output The output, for the same parameters and holding the runs executed so far,
+     *               or null for none
+     */
+    public void setOutput(SwirlOutputBundle output) {
+        if (output != null && (output.I != I || output.T != T || output.S != S ||
+                               output.A != A || output.getCompleteRuns() != mI)) {
+            throw new InvalidParameterException("Invalid output");
+        }
+        mOutput = output;
+    }
+
+    //  Tolerance for probability validation
+    public final static double TOLLERANCE = 1e-10;
+
+    //  Max / mins, possibly temporary, largely for efficiency reasons
+    //  Large results are mapped to disk rather than kept on the heap, see SwirlPopulationTensor
+    public final static int    N_RUNS_MAX               = 1000000;
+    public final static int    N_PERIODS_MAX            = 10000;
     public final static int    MAX_AGE_MAX              = 100;
     public final static int    MAX_LITTER_SIZE_MAX      = 100;
     public final static double RM_CORRELATION_MAX       = 1.0d;
@@ -638,18 +2216,6 @@ public class SwirlEngine {
 //private final SwirlOutputBundle    mOutput;
 //private          SwirlStep mCurrentStep;
 
-    /*public SwirlEngine(SwirlOutputBundle resumeFrom) {
-        mParameters = resumeFrom.mParameters;
-        I = mParameters.mNRuns;
-        T = mParameters.mNPeriods;
-
-        //mOutput = resumeFrom;
-        mI = resumeFrom.mCompleteRuns;
-        mCompleted = resumeFrom.mCompleted;
-
-        //initializeFromResume(); // TODO:
-    }//*/
-
 //  Double check compliance with threading used in android
 //public SwirlOutputBundle getOutputBundle() {
 //    return mOutput;
@@ -0,0 +1,159 @@
+package com.stochasticsystems.swirl.engine;
+
+/**
+ * A parameter that can be varied across scenarios, see SwirlSweep. Applies a numeric value to
+ * a builder through its setters, so values are validated as any other. Integer parameters are
+ * rounded.
+ * <p>
+ * Created by Allan Stewart on 2018-05-13.
+ */
+public abstract class SwirlFactor {
+    public static final String TAG = "SwirlFactor";
+
+    private final String mName;
+
+    protected SwirlFactor(String name) {
+        mName = name;
+    }
+
+    /**
+     * @return The name, used as the column heading of results
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Sets the parameter on a builder.
+     *
+     * @param builder The builder, holding the other parameters
+     * @param value   The value
+     *
+     * @return Whether the value was accepted, the built parameters may still be invalid
+     */
+    public abstract boolean apply(SwirlParameterBuilder builder, double value);
+
+    @Override
+    public String toString() {
+        return mName;
+    }
+
+    //  Factors
+
+    public static final SwirlFactor HARVEST_RATE = new SwirlFactor("HarvestRate") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setHarvestRate((int) Math.round(value));
+        }
+    };
+
+    public static final SwirlFactor SUPPLEMENT_RATE = new SwirlFactor("SupplementRate") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setSupplementRate((int) Math.round(value));
+        }
+    };
+
+    public static final SwirlFactor CARRYING_CAPACITY = new SwirlFactor("CarryingCapacity") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setCarryingCapacity(Math.round(value));
+        }
+    };
+
+    public static final SwirlFactor SD_CARRYING_CAPACITY = new SwirlFactor("SDCarryingCapacity") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setSDCarryingCapacity(value);
+        }
+    };
+
+    public static final SwirlFactor SEX_RATIO = new SwirlFactor("SexRatio") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setSexRatio(value);
+        }
+    };
+
+    public static final SwirlFactor RM_CORRELATION = new SwirlFactor("RMCorrelation") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return builder.setRMCorrelation(value);
+        }
+    };
+
+    /**
+     * Multiplies every mortality below the maximum age, capped at 1.
+     */
+    public static final SwirlFactor MORTALITY_SCALE = new SwirlFactor("MortalityScale") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return value >= 0.0d && builder.setMortality(scale(builder.getMortality(), value, 1.0d));
+        }
+    };
+
+    /**
+     * Multiplies every mortality SD below the maximum age.
+     */
+    public static final SwirlFactor SD_MORTALITY_SCALE = new SwirlFactor("SDMortalityScale") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            return value >= 0.0d && builder.setSDMortality(scale(builder.getSDMortality(), value,
+                                                                 Double.POSITIVE_INFINITY));
+        }
+    };
+
+    /**
+     * Multiplies the probability of every litter size above 0, the probability of no litter
+     * taking up the difference.
+     */
+    public static final SwirlFactor LITTER_SCALE = new SwirlFactor("LitterScale") {
+        @Override
+        public boolean apply(SwirlParameterBuilder builder, double value) {
+            double[] litters = builder.getLitterProbability();
+            double sum = 0.0d;
+            for (int l = 1; l < litters.length; l++) sum += litters[l] *= value;
+            litters[0] = 1.0d - sum;
+            return value >= 0.0d && sum <= 1.0d && builder.setLitterProbability(litters);
+        }
+    };
+
+    /**
+     * @param s The gender
+     * @param a The age, below the maximum
+     *
+     * @return The factor setting a single mortality
+     */
+    public static SwirlFactor mortality(final int s, final int a) {
+        return new SwirlFactor("Mortality[" + s + "][" + a + "]") {
+            @Override
+            public boolean apply(SwirlParameterBuilder builder, double value) {
+                double[][] mortality = copy(builder.getMortality());
+                if (s >= mortality.length || a < 0 || a >= mortality[s].length - 1) return false;
+                mortality[s][a] = value;
+                return builder.setMortality(mortality);
+            }
+        };
+    }
+
+    /**
+     * @return A copy of values with each but the last of every row multiplied, up to max
+     */
+    private static double[][] scale(double[][] values, double factor, double max) {
+        double[][] scaled = copy(values);
+        for (double[] row : scaled) {
+            for (int a = 0; a < row.length - 1; a++) row[a] = Math.min(max, row[a] * factor);
+        }
+        return scaled;
+    }
+
+    /**
+     * Builders share their rows with the bundles they were made from, so they are copied
+     * rather than changed.
+     */
+    private static double[][] copy(double[][] values) {
+        double[][] copy = new double[values.length][];
+        for (int s = 0; s < values.length; s++) copy[s] = values[s].clone();
+        return copy;
+    }
+}
@@ -0,0 +1,399 @@
+package com.stochasticsystems.swirl.engine;
+
+/**
+ * A step kernel specialized for one configuration, chosen when the engine is initialized.
+ * <p>
+ * SwirlEngine's reference step tests whether the population is gendered or managed (harvested
+ * or supplemented) every period. Each kernel here has those answers built in, so its period is
+ * straight-line code: aging counts the census as it goes, split at the reproductive age rather
+ * than testing it per age, and the per-age loops have no branches or cross-age dependencies.
+ * Each performs the same floating point operations in the same order as the reference step
+ * (adding no harvest scale or supplement is exact), so the results are identical.
+ * <p>
+ * Created by Allan Stewart on 2018-04-08.
+ */
+abstract class SwirlKernel {
+    public static final String TAG = "SwirlKernel";
+
+    //  System property selecting the kernel, "scalar" for the reference step
+    public final static String PROPERTY = "swirl.kernel";
+
+    //  Census indices
+    final static int NF = 0, NM = 1, NRF = 2, NRM = 3, CENSUS = 4;
+
+    //  EV indices
+    final static int EV_R = 0, EV_M = 1, EV_K = 2;
+
+    final int        A;
+    final int        mRAgeF, mRAgeM;
+    final int        mSplitF, mSplitM; // The first age aging into the reproductive ages
+    final double     mSR, mSR2;
+    final double     mRVP, mAvgL, mLitterSum;
+    final double[][] mMortality, mMortalitySD;
+    final int        mHarvest;
+    final double[][] mSupplements;
+    final long       mK;
+    final double     mKSD;
+
+    /**
+     * @param parameters  The parameters
+     * @param supplements The per age supplement, s, a
+     */
+    SwirlKernel(SwirlParameterBundle parameters, double[][] supplements) {
+        boolean gendered = parameters.isGendered();
+        double[] litters = parameters.getLitterProbability();
+        int[] rAges = parameters.getReproductionAge();
+
+        A = parameters.getMaxAge()+1;
+        mRAgeF = rAges[0];
+        mRAgeM = (gendered) ? rAges[1] : -1;
+        mSplitF = Math.max(0, mRAgeF-1);
+        mSplitM = Math.max(0, mRAgeM-1);
+        mSR = (gendered) ? parameters.getSexRatio() : 1.0d;
+        mSR2 = 1.0 - mSR;
+        mRVP = litters[0]*(1-litters[0]);
+        mAvgL = parameters.meanLitterSize();
+        double litterSum = 0.0d;
+        for (int l = 1; l < litters.length; l++) {
+            litterSum += l * litters[l];
+        }
+        mLitterSum = litterSum;
+        mMortality = parameters.getMortality();
+        mMortalitySD = parameters.getSDMortality();
+        mHarvest = parameters.getHarvestRate();
+        mSupplements = supplements;
+        mK = parameters.getCarryingCapacity();
+        mKSD = parameters.getSDCarryingCapacity();
+    }
+
+    /**
+     * @param parameters  The parameters
+     * @param supplements The per age supplement, s, a
+     *
+     * @return The kernel for the parameters' configuration
+     */
+    static SwirlKernel create(SwirlParameterBundle parameters, double[][] supplements) {
+        boolean managed = parameters.getHarvestRate() > 0 || parameters.getSupplementRate() > 0;
+
+        if (parameters.isGendered()) {
+            return (managed) ? new GenderedManaged(parameters, supplements) :
+                               new Gendered(parameters, supplements);
+        } else {
+            return (managed) ? new UngenderedManaged(parameters, supplements) :
+                               new Ungendered(parameters, supplements);
+        }
+    }
+
+    /**
+     * @return Whether the specialized kernels are selected by default
+     */
+    static boolean isDefault() {
+        return !"scalar".equalsIgnoreCase(System.getProperty(PROPERTY, "specialized"));
+    }
+
+    /**
+     * Transitions a run from old at t-1 to next at t, updating the census.
+     * Every entry of the next period is overwritten.
+     *
+     * @param old     Holds the population at t-1, s, a
+     * @param oldOff  The offset of the population in old
+     * @param next    Holds the population at t, s, a
+     * @param nextOff The offset of the population in next
+     * @param ev      The run's EVs, t, ev
+     * @param e       The offset of this period's EVs in ev
+     * @param census  The census of t-1, replaced by that of t
+     */
+    abstract void step(long[] old, int oldOff, long[] next, int nextOff, double[] ev, int e,
+                       long[] census);
+
+    private static class Gendered extends SwirlKernel {
+        Gendered(SwirlParameterBundle parameters, double[][] supplements) {
+            super(parameters, supplements);
+        }
+
+        @Override
+        void step(long[] old, int oldOff, long[] next, int nextOff, double[] ev, int e,
+                  long[] census) {
+            int f = nextOff, m = nextOff + A, mOld = oldOff + A;
+            double evM = ev[e+EV_M];
+            double[] mortalityF = mMortality[0], mortalityM = mMortality[1];
+            double[] sdF = mMortalitySD[0], sdM = mMortalitySD[1];
+
+            reproduce(next, f, m, ev[e+EV_R], census);
+
+            //  Aging and mortality, counting as it goes
+            count(survive(old, oldOff, mortalityF, sdF, evM, next, f, 0, mSplitF),
+                  survive(old, oldOff, mortalityF, sdF, evM, next, f, mSplitF, A-1),
+                  next[f], mRAgeF, NF, NRF, census);
+            count(survive(old, mOld, mortalityM, sdM, evM, next, m, 0, mSplitM),
+                  survive(old, mOld, mortalityM, sdM, evM, next, m, mSplitM, A-1),
+                  next[m], mRAgeM, NM, NRM, census);
+
+            capacity(next, f, m, ev[e+EV_K], census);
+        }
+    }
+
+    private static class GenderedManaged extends SwirlKernel {
+        GenderedManaged(SwirlParameterBundle parameters, double[][] supplements) {
+            super(parameters, supplements);
+        }
+
+        @Override
+        void step(long[] old, int oldOff, long[] next, int nextOff, double[] ev, int e,
+                  long[] census) {
+            int f = nextOff, m = nextOff + A, mOld = oldOff + A;
+            double evM = ev[e+EV_M];
+            double[] mortalityF = mMortality[0], mortalityM = mMortality[1];
+            double[] sdF = mMortalitySD[0], sdM = mMortalitySD[1];
+            double[] supplementF = mSupplements[0], supplementM = mSupplements[1];
+            long n = census[NF] + census[NM];
+            double h = (mHarvest > 0) ? (n > 0) ? (n - mHarvest) / (double) n : 0.0d : 1.0d;
+
+            reproduce(next, f, m, ev[e+EV_R], census);
+
+            //  Aging, mortality, harvest and supplement, counting as it goes
+            count(survive(old, oldOff, mortalityF, sdF, evM, h, supplementF, next, f, 0, mSplitF),
+                  survive(old, oldOff, mortalityF, sdF, evM, h, supplementF, next, f, mSplitF, A-1),
+                  next[f], mRAgeF, NF, NRF, census);
+            count(survive(old, mOld, mortalityM, sdM, evM, h, supplementM, next, m, 0, mSplitM),
+                  survive(old, mOld, mortalityM, sdM, evM, h, supplementM, next, m, mSplitM, A-1),
+                  next[m], mRAgeM, NM, NRM, census);
+
+            capacity(next, f, m, ev[e+EV_K], census);
+        }
+    }
+
+    private static class Ungendered extends SwirlKernel {
+        Ungendered(SwirlParameterBundle parameters, double[][] supplements) {
+            super(parameters, supplements);
+        }
+
+        @Override
+        void step(long[] old, int oldOff, long[] next, int nextOff, double[] ev, int e,
+                  long[] census) {
+            double evM = ev[e+EV_M];
+            double[] mortality = mMortality[0], sd = mMortalitySD[0];
+
+            reproduce(next, nextOff, ev[e+EV_R], census);
+
+            //  Aging and mortality, counting as it goes
+            count(die(old, oldOff, mortality, sd, evM, next, nextOff, 0, mSplitF),
+                  die(old, oldOff, mortality, sd, evM, next, nextOff, mSplitF, A-1),
+                  next[nextOff], mRAgeF, NF, NRF, census);
+
+            capacity(next, nextOff, ev[e+EV_K], census);
+        }
+    }
+
+    private static class UngenderedManaged extends SwirlKernel {
+        UngenderedManaged(SwirlParameterBundle parameters, double[][] supplements) {
+            super(parameters, supplements);
+        }
+
+        @Override
+        void step(long[] old, int oldOff, long[] next, int nextOff, double[] ev, int e,
+                  long[] census) {
+            double evM = ev[e+EV_M];
+            double[] mortality = mMortality[0], sd = mMortalitySD[0], supplement = mSupplements[0];
+            long n = census[NF];
+            double h = (mHarvest > 0) ? (n > 0) ? (n - mHarvest) / (double) n : 0.0d : 1.0d;
+
+            reproduce(next, nextOff, ev[e+EV_R], census);
+
+            //  Aging, mortality, harvest and supplement, counting as it goes
+            count(die(old, oldOff, mortality, sd, evM, h, supplement, next, nextOff, 0, mSplitF),
+                  die(old, oldOff, mortality, sd, evM, h, supplement, next, nextOff, mSplitF, A-1),
+                  next[nextOff], mRAgeF, NF, NRF, census);
+
+            capacity(next, nextOff, ev[e+EV_K], census);
+        }
+    }
+
+    /**
+     * Sets one gender's census from its aged counts.
+     *
+     * @param young   The count aged into non-reproductive ages
+     * @param mature  The count aged into reproductive ages
+     * @param newborn The count at age 0
+     * @param rAge    The reproductive age
+     * @param n       The census index of the total
+     * @param nR      The census index of the reproductive total
+     * @param census  The census
+     */
+    static void count(long young, long mature, long newborn, int rAge, int n, int nR,
+                      long[] census) {
+        if (rAge == 0) {
+            mature += newborn;
+        } else {
+            young += newborn;
+        }
+        census[n] = young + mature;
+        census[nR] = mature;
+    }
+
+    //  Gendered passes
+
+    /**
+     * Sets age 0 of each gender from the reproductive census.
+     */
+    final void reproduce(long[] next, int f, int m, double evR, long[] census) {
+        long nRF = census[NRF];
+        double tempF, tempM;
+
+        next[f] = 0;
+        next[m] = 0;
+        if (nRF > 0 && census[NRM] > 0) { // viability check
+            tempF = mAvgL * nRF * (1.0d + evR * Math.sqrt(mRVP / nRF));
+            tempF = Math.max(0.0d, tempF); // Check and remove negatives
+            tempM = tempF * mSR;
+            tempF *= mSR2;
+            next[f] = Math.round(tempF);
+            next[m] = Math.round(tempM);
+        }
+    }
+
+    /**
+     * Counts both genders.
+     */
+    final void census(long[] next, int f, int m, long[] census) {
+        long nRF = sum(next, f+mRAgeF, f+A), nRM = sum(next, m+mRAgeM, m+A);
+        census[NF] = sum(next, f, f+mRAgeF) + nRF;
+        census[NRF] = nRF;
+        census[NM] = sum(next, m, m+mRAgeM) + nRM;
+        census[NRM] = nRM;
+    }
+
+    /**
+     * Scales both genders down to the carrying capacity, if over it.
+     */
+    final void capacity(long[] next, int f, int m, double evK, long[] census) {
+        double k = Math.max(0.0d, mK+mKSD*evK);
+        long n = census[NF] + census[NM];
+
+        if (n > Math.round(k)) {
+            scale(next, f, 2*A, (n > 0) ? k / n : 0.0d); // Genders are adjacent
+            census(next, f, m, census);
+        }
+    }
+
+    //  Ungendered passes
+
+    /**
+     * Sets age 0 from the reproductive census.
+     */
+    final void reproduce(long[] next, int f, double evR, long[] census) {
+        long nRF = census[NRF];
+        double tempF;
+
+        next[f] = 0;
+        if (nRF > 0) { // viability check
+            tempF = mLitterSum * (nRF * (1.0d + evR * Math.sqrt(mRVP / nRF)));
+            tempF = Math.max(0.0d, tempF); // Check and remove negatives
+            next[f] = Math.round(tempF);
+        }
+    }
+
+    /**
+     * Counts the population.
+     */
+    final void census(long[] next, int f, long[] census) {
+        long nRF = sum(next, f+mRAgeF, f+A);
+        census[NF] = sum(next, f, f+mRAgeF) + nRF;
+        census[NRF] = nRF;
+    }
+
+    /**
+     * Scales the population by the carrying capacity, as the reference step does.
+     */
+    final void capacity(long[] next, int f, double evK, long[] census) {
+        double k = Math.max(0.0d, mK+mKSD*evK);
+        long n = census[NF];
+
+        scale(next, f, A, (n > Math.round(k)) ? (n > 0) ? k / n : 0.0d : k);
+        census(next, f, census);
+    }
+
+    //  Per age loops, each returns the sum of what it wrote
+
+    /**
+     * next[a+1] = max(0, round(old[a] * (1 - (mortality[a] + sd[a] * ev)))) for a in [from, to)
+     */
+    static long survive(long[] old, int oldOff, double[] mortality, double[] sd, double ev,
+                        long[] next, int nextOff, int from, int to) {
+        long sum = 0L, x;
+        for (int a = from; a < to; a++) {
+            x = Math.max(0L, Math.round(old[oldOff+a] * (1.0d - (mortality[a] + sd[a] * ev))));
+            next[nextOff+a+1] = x;
+            sum += x;
+        }
+        return sum;
+    }
+
+    /**
+     * next[a+1] = max(0, round(old[a] * (1 - (mortality[a] + sd[a] * ev)) * scale +
+     * supplement[a])) for a in [from, to)
+     */
+    static long survive(long[] old, int oldOff, double[] mortality, double[] sd, double ev,
+                        double scale, double[] supplement, long[] next, int nextOff, int from,
+                        int to) {
+        long sum = 0L, x;
+        for (int a = from; a < to; a++) {
+            x = Math.max(0L, Math.round(old[oldOff+a] * (1.0d - (mortality[a] + sd[a] * ev)) *
+                                        scale + supplement[a]));
+            next[nextOff+a+1] = x;
+            sum += x;
+        }
+        return sum;
+    }
+
+    /**
+     * next[a+1] = max(0, round(old[a] * (mortality[a] + sd[a] * ev))) for a in [from, to)
+     */
+    static long die(long[] old, int oldOff, double[] mortality, double[] sd, double ev,
+                    long[] next, int nextOff, int from, int to) {
+        long sum = 0L, x;
+        for (int a = from; a < to; a++) {
+            x = Math.max(0L, Math.round(old[oldOff+a] * (mortality[a] + sd[a] * ev)));
+            next[nextOff+a+1] = x;
+            sum += x;
+        }
+        return sum;
+    }
+
+    /**
+     * next[a+1] = max(0, round(old[a] * (mortality[a] + sd[a] * ev) * scale + supplement[a]))
+     * for a in [from, to)
+     */
+    static long die(long[] old, int oldOff, double[] mortality, double[] sd, double ev,
+                    double scale, double[] supplement, long[] next, int nextOff, int from,
+                    int to) {
+        long sum = 0L, x;
+        for (int a = from; a < to; a++) {
+            x = Math.max(0L, Math.round(old[oldOff+a] * (mortality[a] + sd[a] * ev) * scale +
+                                        supplement[a]));
+            next[nextOff+a+1] = x;
+            sum += x;
+        }
+        return sum;
+    }
+
+    /**
+     * @return The sum of x[from] to x[to], exclusive
+     */
+    static long sum(long[] x, int from, int to) {
+        long sum = 0L;
+        for (int a = from; a < to; a++) {
+            sum += x[a];
+        }
+        return sum;
+    }
+
+    /**
+     * x[a] = round(x[a] * scale) for a in [off, off+n)
+     */
+    static void scale(long[] x, int off, int n, double scale) {
+        for (int a = off, end = off+n; a < end; a++) {
+            x[a] = Math.round(x[a] * scale);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.stochasticsystems.swirl.engine;
+
+/**
+ * A source of standard normal variates, addressed by counter rather than drawn in sequence.
+ * <p>
+ * Each variate must be a pure function of its counter, so that runs can execute in any order
+ * or concurrently and still be reproduced. Implementations must be thread safe.
+ * <p>
+ * Created by Allan Stewart on 2018-04-15.
+ */
+public interface SwirlNormalSource {
+    /**
+     * A standard normal variate for the given counter.
+     *
+     * @param run    The run index
+     * @param period The period index
+     * @param index  The index of the draw within the period
+     *
+     * @return The variate
+     */
+    double gaussian(int run, int period, int index);
+}
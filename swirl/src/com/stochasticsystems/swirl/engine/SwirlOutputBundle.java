@@ -13,9 +13,9 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
     //protected volatile int     mCompletePeriods = 0;
     protected volatile boolean mCompleted       = false;
     protected final int I, T, S, A;
+    protected final boolean mKeepData; // Whether runs are kept, or only their statistics
 
-    protected           long[][][][] mPopulationData; //  volatile? i, t, s, a
-    protected transient long[][][]   mRData; //  volatile? i, t, s
+    protected SwirlPopulationTensor  mPopulationData; //  volatile? i, t, s, a
     protected transient long[][][]   mPopulationSums; //  volatile? t, s, a
     protected transient long[][][]   mPopulationSquares; //  volatile? t, s, a
     protected transient double[][][] mPopulationMeans; //  transient? volatile? t, s, a
@@ -32,11 +32,31 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
     protected transient long[]       mSummarySquares; //  volatile? t
     protected transient double[]     mSummaryMeans; //  transient? volatile? t
     protected transient double[]     mSummarySTDs; //  transient? volatile? t
+    protected transient long[]       mZeroCounts; //  t
+    protected transient double[]     mZeroPopulationCurve; //  t
+    protected transient long[]       mPairSums; //  Antithetic pair totals, t
+    protected transient long[]       mPairSquares; //  t
+    protected transient long[]       mPairCounts; //  t
+    protected transient double[]     mPairedSummaryVariances; //  Of the mean, t
+    protected transient double[]     mVarianceReduction; //  t
+    protected int                    mReplicates = 1; //  Runs are dealt to them in turn
+    protected transient long[][]     mReplicateSums; //  Null if inconsistent, r, t
+    protected transient long[]       mReplicateRuns; //  r
+    protected transient double[]     mReplicateSummaryVariances; //  Of the mean, t
     protected transient int          mNExtinct;
 
     protected volatile boolean mIsFinal = false;
 
     public SwirlOutputBundle(SwirlParameterBundle parameters) {
+        this(parameters, true);
+    }
+
+    /**
+     * @param parameters The parameters of the runs to be added
+     * @param keepData   Whether to keep the runs, or only their statistics. Without the runs
+     *                   memory use does not depend on the number of runs.
+     */
+    public SwirlOutputBundle(SwirlParameterBundle parameters, boolean keepData) {
         if (parameters == null)
             throw new NullPointerException("Invalid Parameters"); // Assumes validity
         mParameters = parameters;
@@ -44,6 +64,7 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
         T = mParameters.getNPeriods()+1;
         S = mParameters.isGendered() ? 2 : 1;
         A = mParameters.getMaxAge()+1;
+        mKeepData = keepData;
 
         //  Init population stuff
 
@@ -56,8 +77,7 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
     private void initialize() {
         //if (mParameters == null) throw new IllegalStateException("Invalid Parameters");
 
-        mPopulationData = new long[I][][][];//[t][s][a]; // i, t, s, a
-        mRData = new long[I][T][S]; // i, t, s
+        mPopulationData = null; // Allocated or shared on the first addData
         mPopulationSums = new long[T][S][A]; //  volatile? t, s, a
         mPopulationSquares = new long[T][S][A]; //  volatile? t, s, a
         mPopulationMeans = new double[T][S][A]; //  transient? volatile? t, s, a
@@ -74,6 +94,16 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
         mSummarySquares = new long[T]; //  volatile? t
         mSummaryMeans = new double[T]; //  transient? volatile? t
         mSummarySTDs = new double[T]; //  transient? volatile? t
+        mZeroCounts = new long[T];
+        mZeroPopulationCurve = new double[T];
+        mPairSums = new long[T];
+        mPairSquares = new long[T];
+        mPairCounts = new long[T];
+        mPairedSummaryVariances = new double[T];
+        mVarianceReduction = new double[T];
+        mReplicateSums = new long[mReplicates][T];
+        mReplicateRuns = new long[mReplicates];
+        mReplicateSummaryVariances = new double[T];
         mNExtinct = 0;
     }
 
@@ -87,66 +117,302 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
         return addDataFast(newData);
     }
 
+    public synchronized boolean addData(SwirlPopulationTensor newData, int first, int last) {
+        if (isBadData(newData) || first < 0 || last <= first || last > newData.nRuns() ||
+            last-first > mParameters.getNRuns()-mCompleteRuns) {
+            return false;
+        }
+
+        return addDataFast(newData, first, last);
+    }
+
     protected synchronized boolean addDataFast(long[][][][] newData) {
-        int newCompleted = mCompleteRuns+newData.length;
-        int[] rAges = mParameters.getReproductionAge();
-        long temp;
-        double mean, weight = 1.0d / newCompleted;
+        if (!mKeepData) {
+            SwirlAccumulator accumulator = new SwirlAccumulator(mParameters, mReplicates);
+            long[] period = new long[S*A];
+            for (int j = 0; j < newData.length; j++) {
+                for (int t = 0; t < T; t++) {
+                    for (int s = 0; s < S; s++) System.arraycopy(newData[j][t][s], 0, period, s*A, A);
+                    accumulator.onPeriod(mCompleteRuns+j, t, period, 0);
+                }
+                accumulator.onRunComplete(mCompleteRuns+j);
+            }
+            return addStatistics(accumulator);
+        }
 
-        for (int i = mCompleteRuns, j = 0; i < newCompleted; i++, j++) {
-            mPopulationData[i] = newData[j];
+        if (mPopulationData == null) mPopulationData = SwirlPopulationTensor.allocate(I, T, S, A);
 
+        for (int i = mCompleteRuns, j = 0; j < newData.length; i++, j++) {
+            mPopulationData.setRun(i, newData[j]);
+        }
+
+        return accumulate(mPopulationData, mCompleteRuns, mCompleteRuns+newData.length);
+    }
+
+    protected synchronized boolean addDataFast(SwirlPopulationTensor newData, int first,
+                                               int last) {
+        if (!mKeepData) return accumulate(newData, first, last);
+
+        if (mPopulationData == null && newData.nRuns() == I && first == mCompleteRuns) {
+            mPopulationData = newData; // Share rather than copy
+        } else if (mPopulationData == newData) {
+            if (first != mCompleteRuns) return false;
+        } else {
+            if (mPopulationData == null) mPopulationData = SwirlPopulationTensor.allocate(I, T, S, A);
+            SwirlPopulationTensor.copyRuns(newData, first, mPopulationData, mCompleteRuns,
+                                           last-first);
+        }
+
+        return accumulate(mPopulationData, mCompleteRuns, mCompleteRuns+last-first);
+    }
+
+    /**
+     * Adds runs first to last, exclusive, of data to the statistics.
+     *
+     * @param data  The data
+     * @param first The first run to add
+     * @param last  The run after the last to add
+     *
+     * @return success
+     */
+    private boolean accumulate(SwirlPopulationTensor data, int first, int last) {
+        SwirlAccumulator accumulator = new SwirlAccumulator(mParameters, mReplicates);
+        boolean direct = data.hasArray();
+        long[] period = (direct) ? data.array() : new long[S*A];
+
+        for (int i = first; i < last; i++) {
             for (int t = 0; t < T; t++) {
-                for (int s = 0; s < S; s++) {
-                    for (int a = 0; a < A; a++) {
-                        temp = newData[j][t][s][a];
-                        mPopulationSums[t][s][a] += temp;
-                        mPopulationSquares[t][s][a] += temp*temp;
-                        mGSummarySums[t][s] += temp;
-                        mGSummarySquares[t][s] += temp * temp;
-                        mSummarySums[t] += temp;
-                        mSummarySquares[t] += temp * temp;
-                        if (a >= rAges[s]) {
-                            mRSummarySums[t][s] += temp;
-                            mRSummarySquares[t][s] += temp * temp;
-                            mRData[i][t][s] += temp;
-                        }
-                    }
+                if (direct) {
+                    accumulator.onPeriod(i, t, period, data.offset(i, t));
+                } else {
+                    data.getPeriod(i, t, period, 0);
+                    accumulator.onPeriod(i, t, period, 0);
+                }
+            }
+            accumulator.onRunComplete(i);
+        }
+
+        return addStatistics(accumulator);
+    }
+
+    /**
+     * Adds the runs summarized by the accumulator to the statistics, and clears it.
+     * The runs themselves are not kept.
+     *
+     * @param accumulator The accumulator
+     *
+     * @return success
+     */
+    synchronized boolean addStatistics(SwirlAccumulator accumulator) {
+        if (accumulator.T != T || accumulator.S != S || accumulator.A != A ||
+            accumulator.mNRuns > I-mCompleteRuns) {
+            return false;
+        }
+
+        for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                for (int a = 0; a < A; a++) {
+                    mPopulationSums[t][s][a] += accumulator.mPopulationSums[t][s][a];
+                    mPopulationSquares[t][s][a] += accumulator.mPopulationSquares[t][s][a];
                 }
+                mGSummarySums[t][s] += accumulator.mGSummarySums[t][s];
+                mGSummarySquares[t][s] += accumulator.mGSummarySquares[t][s];
+                mRSummarySums[t][s] += accumulator.mRSummarySums[t][s];
+                mRSummarySquares[t][s] += accumulator.mRSummarySquares[t][s];
             }
+            mSummarySums[t] += accumulator.mSummarySums[t];
+            mSummarySquares[t] += accumulator.mSummarySquares[t];
+            mZeroCounts[t] += accumulator.mZeroCounts[t];
+            mPairSums[t] += accumulator.mPairSums[t];
+            mPairSquares[t] += accumulator.mPairSquares[t];
+            mPairCounts[t] += accumulator.mPairCounts[t];
         }
+        mNExtinct += accumulator.mNExtinct;
+        if (accumulator.R != mReplicates && mCompleteRuns == 0) setReplicates(accumulator.R);
+        if (accumulator.R != mReplicates) mReplicateSums = null; // Runs were dealt differently
+        if (mReplicateSums != null) {
+            for (int r = 0; r < mReplicates; r++) {
+                for (int t = 0; t < T; t++) {
+                    mReplicateSums[r][t] += accumulator.mReplicateSums[r][t];
+                }
+                mReplicateRuns[r] += accumulator.mReplicateRuns[r];
+            }
+        }
+        mCompleteRuns += accumulator.mNRuns;
+
+        accumulator.clear();
+
+        computeStatistics();
+
+        mIsFinal = mCompleteRuns == I;
+
+        return true;
+    }
+
+    /**
+     * Shares the given data, whose statistics were already added through an accumulator.
+     *
+     * @param data The data, with the same runs as this bundle
+     */
+    synchronized void shareData(SwirlPopulationTensor data) {
+        if (mKeepData && mPopulationData == null && data.nRuns() == I && !isBadData(data)) {
+            mPopulationData = data;
+        }
+    }
+
+    /**
+     * A copy holding only the statistics, so its size does not depend on the number of runs.
+     *
+     * @return The copy, with the same statistics
+     */
+    public SwirlOutputBundle toSummary() {
+        return fromSums(mParameters, toSums(), mCompleted);
+    }
+
+    /**
+     * @return A copy of the sums behind the statistics
+     */
+    synchronized SwirlAccumulator toSums() {
+        SwirlAccumulator sums =
+                new SwirlAccumulator(mParameters, (mReplicateSums != null) ? mReplicates : 1);
 
         for (int t = 0; t < T; t++) {
+            for (int s = 0; s < S; s++) {
+                System.arraycopy(mPopulationSums[t][s], 0, sums.mPopulationSums[t][s], 0, A);
+                System.arraycopy(mPopulationSquares[t][s], 0, sums.mPopulationSquares[t][s], 0, A);
+            }
+            System.arraycopy(mGSummarySums[t], 0, sums.mGSummarySums[t], 0, S);
+            System.arraycopy(mGSummarySquares[t], 0, sums.mGSummarySquares[t], 0, S);
+            System.arraycopy(mRSummarySums[t], 0, sums.mRSummarySums[t], 0, S);
+            System.arraycopy(mRSummarySquares[t], 0, sums.mRSummarySquares[t], 0, S);
+        }
+        System.arraycopy(mSummarySums, 0, sums.mSummarySums, 0, T);
+        System.arraycopy(mSummarySquares, 0, sums.mSummarySquares, 0, T);
+        System.arraycopy(mZeroCounts, 0, sums.mZeroCounts, 0, T);
+        System.arraycopy(mPairSums, 0, sums.mPairSums, 0, T);
+        System.arraycopy(mPairSquares, 0, sums.mPairSquares, 0, T);
+        System.arraycopy(mPairCounts, 0, sums.mPairCounts, 0, T);
+        if (mReplicateSums != null) {
+            for (int r = 0; r < mReplicates; r++) {
+                System.arraycopy(mReplicateSums[r], 0, sums.mReplicateSums[r], 0, T);
+            }
+            System.arraycopy(mReplicateRuns, 0, sums.mReplicateRuns, 0, mReplicates);
+        } else { // Inconsistent, so as one replicate
+            System.arraycopy(mSummarySums, 0, sums.mReplicateSums[0], 0, T);
+            sums.mReplicateRuns[0] = mCompleteRuns;
+        }
+        sums.mNRuns = mCompleteRuns;
+        sums.mNExtinct = mNExtinct;
+
+        return sums;
+    }
+
+    /**
+     * @param parameters The parameters of the runs summed
+     * @param sums       The sums, which are cleared
+     * @param completed  Whether the runs were complete
+     *
+     * @return A bundle holding only the statistics of the sums
+     */
+    static SwirlOutputBundle fromSums(SwirlParameterBundle parameters, SwirlAccumulator sums,
+                                      boolean completed) {
+        SwirlOutputBundle summary = new SwirlOutputBundle(parameters, false);
+        if (sums.mNRuns > 0) summary.addStatistics(sums);
+        summary.mCompleted = completed;
+        return summary;
+    }
+
+    /**
+     * Recomputes the means and standard deviations from the sums.
+     */
+    private void computeStatistics() {
+        double mean, weight = 1.0d / mCompleteRuns;
+
+        for (int t = 0; t < T; t++) {
+            mZeroPopulationCurve[t] = mZeroCounts[t] * weight;
+
             mean = mSummarySums[t] * weight;
             mSummaryMeans[t] = mean;
-            mSummarySTDs[t] = Math.sqrt(mSummarySquares[t] * weight + mean * mean);
+            mSummarySTDs[t] = std(mSummarySquares[t] * weight, mean);
+            computePairs(t);
+            computeReplicates(t);
 
             for (int s = 0; s < S; s++) {
                 mean = mGSummarySums[t][s] * weight;
                 mGSummaryMeans[t][s] = mean;
-                mGSummarySTDs[t][s] = Math.sqrt(mGSummarySquares[t][s] * weight + mean * mean);
+                mGSummarySTDs[t][s] = std(mGSummarySquares[t][s] * weight, mean);
 
                 mean = mRSummarySums[t][s] * weight;
                 mRSummaryMeans[t][s] = mean;
-                mRSummarySTDs[t][s] = Math.sqrt(mRSummarySquares[t][s] * weight + mean * mean);
+                mRSummarySTDs[t][s] = std(mRSummarySquares[t][s] * weight, mean);
 
                 for (int a = 0; a < A; a++) {
                     mean = mPopulationSums[t][s][a] * weight;
                     mPopulationMeans[t][s][a] = mean;
-                    mPopulationSTDs[t][s][a] = Math.sqrt(mPopulationSquares[t][s][a] * weight + mean * mean);
+                    mPopulationSTDs[t][s][a] = std(mPopulationSquares[t][s][a] * weight, mean);
                 }
             }
         }
+    }
 
-        for (int i = mCompleteRuns; i < newCompleted; i++) {
-            if (mRData[i][T-1][0] == 0 || (S>1 && mRData[i][T-1][1] == 0)) mNExtinct++;
+    /**
+     * Recomputes the paired estimates of period t, from the sample variance of the pair
+     * totals. The paired mean of n pairs has a variance of Var(pair) / 4n, and independent
+     * runs would give Var(run) / 2n, so the saving is 1 - Var(pair) / 2Var(run).
+     *
+     * @param t The period
+     */
+    private void computePairs(int t) {
+        long n = mPairCounts[t];
+        if (n < 2 || mCompleteRuns < 2) {
+            mPairedSummaryVariances[t] = Double.NaN;
+            mVarianceReduction[t] = Double.NaN;
+            return;
         }
 
-        mCompleteRuns = newCompleted;
+        double sum = mPairSums[t];
+        double pairVar = Math.max(0.0d, (mPairSquares[t] - sum * sum / n) / (n - 1));
+        double runVar = mSummarySTDs[t] * mSummarySTDs[t] * mCompleteRuns / (mCompleteRuns - 1);
+        mPairedSummaryVariances[t] = pairVar / (4.0d * n);
+        mVarianceReduction[t] = (runVar > 0.0d) ? 1.0d - pairVar / (2.0d * runVar) : 0.0d;
+    }
 
-        mIsFinal = mCompleteRuns == I;
+    /**
+     * Recomputes the replicate estimate of period t, from the spread of the replicate means,
+     * whose mean has a variance of Var(replicate mean) / R.
+     *
+     * @param t The period
+     */
+    private void computeReplicates(int t) {
+        int R = mReplicates;
+        if (R < 2 || mReplicateSums == null) {
+            mReplicateSummaryVariances[t] = Double.NaN;
+            return;
+        }
 
-        return true;
+        double mean = 0.0d, square = 0.0d, m;
+        for (int r = 0; r < R; r++) {
+            if (mReplicateRuns[r] == 0) {
+                mReplicateSummaryVariances[t] = Double.NaN;
+                return;
+            }
+            m = mReplicateSums[r][t] / (double) mReplicateRuns[r];
+            mean += m;
+            square += m * m;
+        }
+        mean /= R;
+        mReplicateSummaryVariances[t] = Math.max(0.0d, square - R * mean * mean) /
+                                        (R * (R - 1.0d));
+    }
+
+    /**
+     * @param meanSquare The mean of the squares
+     * @param mean       The mean
+     *
+     * @return The standard deviation, clamped at zero against rounding
+     */
+    private static double std(double meanSquare, double mean) {
+        return Math.sqrt(Math.max(0.0d, meanSquare - mean * mean));
     }
 
     public boolean isBadData(long[][][][] data) {
@@ -157,10 +423,18 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
         return data == null || data.length != T || data[0].length != S || data[0][0].length != A;
     }
 
+    public boolean isBadData(SwirlPopulationTensor data) {
+        return data == null || data.nPeriods() != T || data.nGenders() != S || data.nAges() != A;
+    }
+
     public SwirlParameterBundle getParameters() {
         return mParameters;
     }
 
+    public boolean isKeepingData() {
+        return mKeepData;
+    }
+
     public int getCompleteRuns() {
         return mCompleteRuns;
     }
@@ -170,6 +444,10 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
     }
 
     public long[][][][] getPopulationData() {
+        return (mPopulationData == null) ? null : mPopulationData.toArray(0, mCompleteRuns);
+    }
+
+    public SwirlPopulationTensor getPopulationTensor() {
         return mPopulationData;
     }
 
@@ -213,6 +491,139 @@ public class SwirlOutputBundle { // Parcelable (via wrapper? inheritance?), Seri
         return mNExtinct / (double) mCompleteRuns;
     }
 
+    /**
+     * The half-width of the confidence interval of the extinction probability, using the
+     * Agresti-Coull interval, which stays open when no or every run is extinct.
+     *
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width, or infinity if no runs are complete
+     */
+    public double getExtinctionHalfWidth(double z) {
+        int n = mCompleteRuns;
+        if (n == 0) return Double.POSITIVE_INFINITY;
+        double z2 = z * z, nz = n + z2;
+        double p = (mNExtinct + z2 / 2.0d) / nz;
+        return z * Math.sqrt(p * (1.0d - p) / nz);
+    }
+
+    /**
+     * The half-width of the confidence interval of the mean total population at a period,
+     * using the sample standard deviation.
+     *
+     * @param t The period
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width, or infinity if fewer than two runs are complete
+     */
+    public double getSummaryHalfWidth(int t, double z) {
+        int n = mCompleteRuns;
+        if (n < 2) return Double.POSITIVE_INFINITY;
+        return z * mSummarySTDs[t] * Math.sqrt(1.0d / (n - 1));
+    }
+
+    /**
+     * The half-width of the confidence interval of the mean total population at a period,
+     * estimated from antithetic pairs, see SwirlEngine.setAntithetic.
+     *
+     * @param t The period
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width, or infinity if fewer than two pairs are complete
+     */
+    public double getPairedSummaryHalfWidth(int t, double z) {
+        double variance = mPairedSummaryVariances[t];
+        return (Double.isNaN(variance)) ? Double.POSITIVE_INFINITY : z * Math.sqrt(variance);
+    }
+
+    /**
+     * The half-width of the confidence interval of the mean total population at a period,
+     * estimated from the spread of independent replicates, see SwirlSobol.
+     *
+     * @param t The period
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width, or infinity without two or more populated replicates
+     */
+    public double getReplicateSummaryHalfWidth(int t, double z) {
+        double variance = mReplicateSummaryVariances[t];
+        return (Double.isNaN(variance)) ? Double.POSITIVE_INFINITY : z * Math.sqrt(variance);
+    }
+
+    /**
+     * @return The variance of the mean total population estimated from the replicates, NaN
+     *         without two or more populated replicates, t
+     */
+    public double[] getReplicateSummaryVariances() {
+        return mReplicateSummaryVariances;
+    }
+
+    public int getReplicates() {
+        return mReplicates;
+    }
+
+    /**
+     * Sets the number of replicates runs are dealt to, run i belonging to replicate i % R.
+     * Set from the engine's SwirlSobol source when its runs are added, otherwise 1.
+     *
+     * @param replicates The number of replicates, R
+     *
+     * @return success, false once runs have been added
+     */
+    public synchronized boolean setReplicates(int replicates) {
+        if (replicates < 1 || mCompleteRuns != 0) return false;
+        mReplicates = replicates;
+        mReplicateSums = new long[replicates][T];
+        mReplicateRuns = new long[replicates];
+        return true;
+    }
+
+    /**
+     * @return The number of complete antithetic pairs at each period, t
+     */
+    public long[] getPairCounts() {
+        return mPairCounts;
+    }
+
+    /**
+     * @return The variance of the mean total population estimated from antithetic pairs,
+     *         NaN for fewer than two pairs, t
+     */
+    public double[] getPairedSummaryVariances() {
+        return mPairedSummaryVariances;
+    }
+
+    /**
+     * The fraction of the variance of the mean total population saved by pairing, relative
+     * to as many independent runs. Near 0 for independent runs, negative if pairs are
+     * positively correlated.
+     *
+     * @return The fraction saved, NaN for fewer than two pairs, t
+     */
+    public double[] getVarianceReduction() {
+        return mVarianceReduction;
+    }
+
+    /**
+     * @return The number of runs with no population at each period, t
+     */
+    public long[] getZeroPopulationCounts() {
+        return mZeroCounts;
+    }
+
+    /**
+     * Without supplementation a run with no population stays so, and this is the fraction of
+     * runs with none left by each period, the distribution of SwirlEngine.getZeroPopulationTime.
+     * Unlike getExtinctionPercent, which also counts runs with no reproductive population of
+     * some gender in the final period, only runs with no individuals at all are counted, so
+     * its final value may be lower.
+     *
+     * @return The fraction of runs with no population at each period, t
+     */
+    public double[] getZeroPopulationCurve() {
+        return mZeroPopulationCurve;
+    }
+
     public boolean isFinal() {
         return mIsFinal;
     }
@@ -532,6 +532,7 @@ public class SwirlParameterBuilder {
     public boolean setNRuns(int nRuns) {
         if (isViableNRuns(nRuns)) {
             mIsValid = false; // Overkill?
+            mLastValid = false;
             mNRuns = nRuns;
             return true;
         }
@@ -878,7 +879,9 @@ public class SwirlParameterBuilder {
             if (!validProb(p)) return false;
             d += p;
         }
-        return realProb(d) && Math.abs(litterProbability[0] + d - 1.0d) < SwirlEngine.TOLLERANCE;
+        //  Some litters must be possible, but every female may have one, p(0) = 0
+        return d > 0.0d && d < 1.0d + SwirlEngine.TOLLERANCE &&
+               Math.abs(litterProbability[0] + d - 1.0d) < SwirlEngine.TOLLERANCE;
     }
 
     /**
@@ -1,5 +1,10 @@
 package com.stochasticsystems.swirl.engine;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
 
@@ -419,6 +424,27 @@ public class SwirlParameterBundle implements Serializable, Cloneable {
         return average;
     }
 
+    /**
+     * Whether every run is identical, regardless of the draws.
+     * Draws only enter through the mortality and carrying capacity SDs, and through
+     * reproduction when the litter probability has variance, p(0)*(1-p(0)). The R-M
+     * correlation only mixes draws, so it has no effect when none of them are used. Nothing
+     * ages out of the maximum age, so its mortality SD is unused.
+     *
+     * @return Whether the simulation is deterministic
+     */
+    public boolean isDeterministic() {
+        if (mSDCarryingCapacity != 0.0d) return false;
+        if (mLitterProbability[0] * (1.0d - mLitterProbability[0]) != 0.0d) return false;
+
+        for (double[] sds : mSDMortality)
+            for (int a = 0; a < mMaxAge; a++) {
+                if (sds[a] != 0.0d) return false;
+            }
+
+        return true;
+    }
+
     //  Comparision outputs
 
     /**
@@ -708,6 +734,117 @@ public class SwirlParameterBundle implements Serializable, Cloneable {
                                         supplementRate);
     }
 
+    /**
+     * The canonical encoding of the parameters: every field in declaration order, big-endian,
+     * arrays preceded by their lengths and doubles by their bits. Equal parameters have equal
+     * encodings on every platform, see SwirlResultStore.
+     *
+     * @return The encoding, read by fromBytes
+     */
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(mNRuns);
+            out.writeInt(mNPeriods);
+            out.writeInt(mReportingInterval);
+            out.writeInt(mMaxAge);
+            out.writeInt(mReproductionAge.length);
+            for (int age : mReproductionAge) out.writeInt(age);
+            out.writeBoolean(mIsGendered);
+            out.writeInt(mMaxLitterSize);
+            writeDoubles(out, mLitterProbability);
+            out.writeLong(Double.doubleToLongBits(mSexRatio));
+            out.writeLong(Double.doubleToLongBits(mRMCorrelation));
+            out.writeInt(mMortality.length);
+            for (double[] row : mMortality) writeDoubles(out, row);
+            out.writeInt(mSDMortality.length);
+            for (double[] row : mSDMortality) writeDoubles(out, row);
+            out.writeInt(mInitialPopulation.length);
+            for (long[] row : mInitialPopulation) {
+                out.writeInt(row.length);
+                for (long value : row) out.writeLong(value);
+            }
+            out.writeLong(mCarryingCapacity);
+            out.writeLong(Double.doubleToLongBits(mSDCarryingCapacity));
+            out.writeInt(mHarvestRate);
+            out.writeInt(mSupplementRate);
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not thrown by byte arrays
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Creates a parameter bundle from the encoding produced by toBytes.
+     *
+     * @param encoding The encoding
+     *
+     * @return The parameters, validated, or null if the encoding is malformed
+     */
+    public static SwirlParameterBundle fromBytes(byte[] encoding) {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoding));
+        try {
+            int nRuns = in.readInt();
+            int nPeriods = in.readInt();
+            int reportingInterval = in.readInt();
+            int maxAge = in.readInt();
+            int[] reproductionAge = new int[length(in, encoding)];
+            for (int s = 0; s < reproductionAge.length; s++) reproductionAge[s] = in.readInt();
+            boolean isGendered = in.readBoolean();
+            int maxLitterSize = in.readInt();
+            double[] litterProbability = readDoubles(in, encoding);
+            double sexRatio = Double.longBitsToDouble(in.readLong());
+            double rmCorrelation = Double.longBitsToDouble(in.readLong());
+            double[][] mortality = new double[length(in, encoding)][];
+            for (int s = 0; s < mortality.length; s++) mortality[s] = readDoubles(in, encoding);
+            double[][] sdMortality = new double[length(in, encoding)][];
+            for (int s = 0; s < sdMortality.length; s++) sdMortality[s] = readDoubles(in, encoding);
+            long[][] initialPopulation = new long[length(in, encoding)][];
+            for (int s = 0; s < initialPopulation.length; s++) {
+                initialPopulation[s] = new long[length(in, encoding)];
+                for (int a = 0; a < initialPopulation[s].length; a++) {
+                    initialPopulation[s][a] = in.readLong();
+                }
+            }
+            long carryingCapacity = in.readLong();
+            double sdCarryingCapacity = Double.longBitsToDouble(in.readLong());
+            int harvestRate = in.readInt();
+            int supplementRate = in.readInt();
+            if (in.read() != -1) return null;
+
+            return new SwirlParameterBundle(nRuns, nPeriods, reportingInterval, maxAge,
+                                            reproductionAge, isGendered, maxLitterSize,
+                                            litterProbability, sexRatio, rmCorrelation,
+                                            mortality, sdMortality, initialPopulation,
+                                            carryingCapacity, sdCarryingCapacity, harvestRate,
+                                            supplementRate);
+        } catch (IOException | RuntimeException e) { // Truncated, or inconsistent lengths
+            return null;
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        out.writeInt(values.length);
+        for (double value : values) out.writeLong(Double.doubleToLongBits(value));
+    }
+
+    private static double[] readDoubles(DataInputStream in, byte[] encoding) throws IOException {
+        double[] values = new double[length(in, encoding)];
+        for (int j = 0; j < values.length; j++) values[j] = Double.longBitsToDouble(in.readLong());
+        return values;
+    }
+
+    /**
+     * @return An array length, checked against the encoding's size before anything is allocated
+     */
+    private static int length(DataInputStream in, byte[] encoding) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > encoding.length) throw new IOException("Invalid length");
+        return length;
+    }
+
     @Override
     public String toString() {
         // TODO: make a sensible version.
@@ -0,0 +1,30 @@
+package com.stochasticsystems.swirl.engine;
+
+/**
+ * Receives each period of each run as a SwirlEngine executes it.
+ * <p>
+ * When the engine runs in parallel, calls for different runs may arrive concurrently from
+ * different threads, but the calls for any one run arrive in order on a single thread. Runs
+ * executed in lockstep (see SwirlEngine.setLockstep) interleave their periods on that thread.
+ * <p>
+ * Created by Allan Stewart on 2018-03-11.
+ */
+public interface SwirlPeriodListener {
+    /**
+     * Called after period t of run i is complete.
+     * The population may be reused by the engine once this returns, and must not be modified.
+     *
+     * @param i          The run index
+     * @param t          The period
+     * @param population Holds the population, s, a
+     * @param offset     The offset of the population in the array
+     */
+    void onPeriod(int i, int t, long[] population, int offset);
+
+    /**
+     * Called after the last period of run i.
+     *
+     * @param i The run index
+     */
+    void onRunComplete(int i);
+}
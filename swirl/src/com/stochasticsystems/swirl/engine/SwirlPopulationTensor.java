@@ -0,0 +1,598 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+
+/**
+ * Stores population data for a set of runs contiguously, indexed by run, period, gender and
+ * age, with age varying fastest.
+ * <p>
+ * Data is held either in one long[] on the heap, or off the heap in direct or memory-mapped
+ * buffers, each holding a whole number of runs. Off heap storage is not limited by the heap
+ * size or the maximum array length, and is not scanned by the garbage collector.
+ * <p>
+ * Created by Allan Stewart on 2018-03-18.
+ */
+public class SwirlPopulationTensor {
+    public static final String TAG = "SwirlPopulationTensor";
+
+    /**
+     * Where the data is held.
+     */
+    public enum Storage {
+        HEAP, OFF_HEAP, MAPPED
+    }
+
+    //  Largest heap tensor, in entries
+    public final static long HEAP_ENTRIES_MAX  = Integer.MAX_VALUE - 8;
+    //  Largest heap tensor allocate() will choose, in entries
+    public final static long HEAP_ENTRIES_AUTO = 1L << 26;
+    //  Largest single off heap buffer, in entries
+    public final static int  CHUNK_ENTRIES_MAX = Integer.MAX_VALUE / 8;
+
+    protected final int I, T, S, A;
+
+    //  Strides
+    protected final int mRunStride;    // T*S*A, or 0 when every run is shared
+    protected final int mPeriodStride; // S*A
+    protected final int mGenderStride; // A
+
+    protected final Storage      mStorage;
+    protected final long[]       mData;         // i, t, s, a, heap only
+    protected final LongBuffer[] mChunks;       // i, t, s, a, off heap only
+    protected final int          mRunsPerChunk; // Off heap only
+    protected final int          mFirstRun;     // Offset of run 0, for views
+    protected final File         mFile;         // Mapped only
+
+    /**
+     * Creates a zeroed tensor on the heap.
+     *
+     * @param nRuns    The number of runs, I
+     * @param nPeriods The number of periods including the initial one, T
+     * @param nGenders The number of genders, S
+     * @param nAges    The number of ages, A
+     */
+    public SwirlPopulationTensor(int nRuns, int nPeriods, int nGenders, int nAges) {
+        if (!isValidDimensions(nRuns, nPeriods, nGenders, nAges) ||
+            (long) nRuns * nPeriods * nGenders * nAges > HEAP_ENTRIES_MAX) {
+            throw new InvalidParameterException("Invalid dimensions: " + nRuns + "x" + nPeriods +
+                                                "x" + nGenders + "x" + nAges);
+        }
+        I = nRuns;
+        T = nPeriods;
+        S = nGenders;
+        A = nAges;
+        mGenderStride = A;
+        mPeriodStride = S*A;
+        mRunStride = T*S*A;
+        mStorage = Storage.HEAP;
+        mData = new long[I*mRunStride];
+        mChunks = null;
+        mRunsPerChunk = 0;
+        mFirstRun = 0;
+        mFile = null;
+    }
+
+    /**
+     * Creates a tensor sized for the given parameters on the heap.
+     *
+     * @param parameters The parameters
+     */
+    public SwirlPopulationTensor(SwirlParameterBundle parameters) {
+        this(parameters.getNRuns(), parameters.getNPeriods()+1, parameters.nGenders(),
+             parameters.getMaxAge()+1);
+    }
+
+    /**
+     * Creates a zeroed tensor off the heap.
+     *
+     * @param nRuns    The number of runs, I
+     * @param nPeriods The number of periods including the initial one, T
+     * @param nGenders The number of genders, S
+     * @param nAges    The number of ages, A
+     * @param file     The file to map, or null for direct buffers
+     *
+     * @throws IOException If the file cannot be mapped
+     */
+    protected SwirlPopulationTensor(int nRuns, int nPeriods, int nGenders, int nAges, File file)
+            throws IOException {
+        this(nRuns, nPeriods, nGenders, nAges, file, CHUNK_ENTRIES_MAX);
+    }
+
+    /**
+     * Creates a zeroed tensor off the heap in buffers of at most the given size, each holding
+     * a whole number of runs.
+     *
+     * @param nRuns        The number of runs, I
+     * @param nPeriods     The number of periods including the initial one, T
+     * @param nGenders     The number of genders, S
+     * @param nAges        The number of ages, A
+     * @param file         The file to map, or null for direct buffers
+     * @param chunkEntries The largest buffer, in entries, at most CHUNK_ENTRIES_MAX
+     *
+     * @throws IOException If the file cannot be mapped
+     */
+    protected SwirlPopulationTensor(int nRuns, int nPeriods, int nGenders, int nAges, File file,
+                                    int chunkEntries) throws IOException {
+        if (!isValidDimensions(nRuns, nPeriods, nGenders, nAges) ||
+            chunkEntries > CHUNK_ENTRIES_MAX ||
+            (long) nPeriods * nGenders * nAges > chunkEntries) {
+            throw new InvalidParameterException("Invalid dimensions: " + nRuns + "x" + nPeriods +
+                                                "x" + nGenders + "x" + nAges);
+        }
+        I = nRuns;
+        T = nPeriods;
+        S = nGenders;
+        A = nAges;
+        mGenderStride = A;
+        mPeriodStride = S*A;
+        mRunStride = T*S*A;
+        mStorage = (file == null) ? Storage.OFF_HEAP : Storage.MAPPED;
+        mData = null;
+        mRunsPerChunk = Math.max(1, Math.min(I, chunkEntries / mRunStride));
+        mChunks = new LongBuffer[Math.max(1, (I + mRunsPerChunk - 1) / mRunsPerChunk)];
+        mFirstRun = 0;
+        mFile = file;
+
+        long chunkBytes = (long) mRunsPerChunk * mRunStride * 8L;
+        long totalBytes = (long) I * mRunStride * 8L;
+
+        if (file == null) {
+            for (int c = 0; c < mChunks.length; c++) {
+                long bytes = Math.min(chunkBytes, totalBytes - c * chunkBytes);
+                mChunks[c] = ByteBuffer.allocateDirect((int) bytes)
+                                       .order(ByteOrder.nativeOrder()).asLongBuffer();
+            }
+        } else {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(totalBytes);
+                FileChannel channel = raf.getChannel();
+                for (int c = 0; c < mChunks.length; c++) {
+                    long bytes = Math.min(chunkBytes, totalBytes - c * chunkBytes);
+                    mChunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, c * chunkBytes, bytes)
+                                        .order(ByteOrder.nativeOrder()).asLongBuffer();
+                }
+            } finally {
+                raf.close(); // Mappings remain valid
+            }
+        }
+    }
+
+    /**
+     * Creates a view of runs first to first+nRuns of source, sharing its storage.
+     */
+    private SwirlPopulationTensor(SwirlPopulationTensor source, int first, int nRuns) {
+        I = nRuns;
+        T = source.T;
+        S = source.S;
+        A = source.A;
+        mGenderStride = source.mGenderStride;
+        mPeriodStride = source.mPeriodStride;
+        mRunStride = source.mRunStride;
+        mStorage = source.mStorage;
+        mData = source.mData;
+        mChunks = source.mChunks;
+        mRunsPerChunk = source.mRunsPerChunk;
+        mFirstRun = source.mFirstRun + first;
+        mFile = source.mFile;
+    }
+
+    /**
+     * Creates a tensor of nRuns runs that all share the storage of run's first run.
+     */
+    private SwirlPopulationTensor(SwirlPopulationTensor run, int nRuns) {
+        I = nRuns;
+        T = run.T;
+        S = run.S;
+        A = run.A;
+        mGenderStride = run.mGenderStride;
+        mPeriodStride = run.mPeriodStride;
+        mRunStride = 0;
+        mStorage = Storage.HEAP;
+        mData = run.mData;
+        mChunks = null;
+        mRunsPerChunk = 0;
+        mFirstRun = 0;
+        mFile = null;
+    }
+
+    private static boolean isValidDimensions(int nRuns, int nPeriods, int nGenders, int nAges) {
+        return nRuns >= 0 && nPeriods >= 1 && nGenders >= 1 && nAges >= 1;
+    }
+
+    /**
+     * Creates a zeroed tensor with the given storage.
+     *
+     * @param storage  Where to hold the data
+     * @param file     The file to map, only used by MAPPED, null for a temporary file, which
+     *                 is deleted once mapped where the platform allows, otherwise on exit
+     * @param nRuns    The number of runs, I
+     * @param nPeriods The number of periods including the initial one, T
+     * @param nGenders The number of genders, S
+     * @param nAges    The number of ages, A
+     *
+     * @return The tensor
+     *
+     * @throws IOException If the file cannot be created or mapped
+     */
+    public static SwirlPopulationTensor create(Storage storage, File file, int nRuns,
+                                               int nPeriods, int nGenders, int nAges)
+            throws IOException {
+        switch (storage) {
+            case HEAP:
+                return new SwirlPopulationTensor(nRuns, nPeriods, nGenders, nAges);
+            case OFF_HEAP:
+                return new SwirlPopulationTensor(nRuns, nPeriods, nGenders, nAges, null);
+            case MAPPED:
+            default:
+                if (file != null) {
+                    return new SwirlPopulationTensor(nRuns, nPeriods, nGenders, nAges, file);
+                }
+                file = File.createTempFile(TAG, ".bin");
+                SwirlPopulationTensor tensor;
+                try {
+                    tensor = new SwirlPopulationTensor(nRuns, nPeriods, nGenders, nAges, file);
+                } finally {
+                    //  Mappings remain valid, and the space is freed once they are collected
+                    if (!file.delete()) file.deleteOnExit();
+                }
+                return tensor;
+        }
+    }
+
+    /**
+     * Creates a zeroed tensor, on the heap if it is small enough, otherwise mapped to a
+     * temporary file, which is not limited by the heap or direct memory limits.
+     *
+     * @param nRuns    The number of runs, I
+     * @param nPeriods The number of periods including the initial one, T
+     * @param nGenders The number of genders, S
+     * @param nAges    The number of ages, A
+     *
+     * @return The tensor
+     */
+    public static SwirlPopulationTensor allocate(int nRuns, int nPeriods, int nGenders,
+                                                 int nAges) {
+        try {
+            return create(defaultStorage(nRuns, nPeriods, nGenders, nAges), null, nRuns,
+                          nPeriods, nGenders, nAges);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to map: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return The storage allocate() uses for a tensor of the given dimensions
+     */
+    public static Storage defaultStorage(int nRuns, int nPeriods, int nGenders, int nAges) {
+        return ((long) nRuns * nPeriods * nGenders * nAges <= HEAP_ENTRIES_AUTO) ?
+               Storage.HEAP : Storage.MAPPED;
+    }
+
+    /**
+     * Creates a zeroed tensor on the heap in which every run is the same run, held once.
+     * Writing any run writes them all, so it suits runs known to be identical.
+     *
+     * @param nRuns    The number of runs, I
+     * @param nPeriods The number of periods including the initial one, T
+     * @param nGenders The number of genders, S
+     * @param nAges    The number of ages, A
+     *
+     * @return The tensor
+     */
+    public static SwirlPopulationTensor shared(int nRuns, int nPeriods, int nGenders,
+                                               int nAges) {
+        if (nRuns < 0) throw new InvalidParameterException("Invalid runs: " + nRuns);
+        return new SwirlPopulationTensor(new SwirlPopulationTensor(1, nPeriods, nGenders, nAges),
+                                         nRuns);
+    }
+
+    /**
+     * Copies nested data into a new tensor.
+     *
+     * @param data The data, i, t, s, a
+     *
+     * @return The tensor
+     */
+    public static SwirlPopulationTensor fromArray(long[][][][] data) {
+        SwirlPopulationTensor tensor = allocate(data.length, data[0].length, data[0][0].length,
+                                                data[0][0][0].length);
+        for (int i = 0; i < tensor.I; i++) tensor.setRun(i, data[i]);
+        return tensor;
+    }
+
+    /**
+     * Copies whole runs between tensors with the same period, gender and age dimensions.
+     *
+     * @param src      The source
+     * @param srcFirst The first run to copy
+     * @param dst      The destination
+     * @param dstFirst The run to copy the first to
+     * @param nRuns    The number of runs to copy
+     */
+    public static void copyRuns(SwirlPopulationTensor src, int srcFirst,
+                                SwirlPopulationTensor dst, int dstFirst, int nRuns) {
+        if (src.hasArray() && dst.hasArray() && !src.isShared() && !dst.isShared()) {
+            System.arraycopy(src.mData, src.offset(srcFirst, 0), dst.mData,
+                             dst.offset(dstFirst, 0), nRuns * src.mRunStride);
+        } else {
+            long[] buffer = new long[src.mPeriodStride];
+            for (int j = 0; j < nRuns; j++) {
+                for (int t = 0; t < src.T; t++) {
+                    src.getPeriod(srcFirst+j, t, buffer, 0);
+                    dst.setPeriod(dstFirst+j, t, buffer, 0);
+                }
+            }
+        }
+    }
+
+    //  Dimensions
+
+    public int nRuns() {
+        return I;
+    }
+
+    public int nPeriods() {
+        return T;
+    }
+
+    public int nGenders() {
+        return S;
+    }
+
+    public int nAges() {
+        return A;
+    }
+
+    //  Layout
+
+    /**
+     * @return The distance between runs, 0 if shared
+     */
+    public int getRunStride() {
+        return mRunStride;
+    }
+
+    public int getPeriodStride() {
+        return mPeriodStride;
+    }
+
+    public int getGenderStride() {
+        return mGenderStride;
+    }
+
+    public Storage getStorage() {
+        return mStorage;
+    }
+
+    /**
+     * @return The mapped file, or null if not mapped, a temporary file may no longer exist
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return Whether every run shares the same storage, see shared()
+     */
+    public boolean isShared() {
+        return mRunStride == 0;
+    }
+
+    /**
+     * @return Whether the data is held in a single heap array
+     */
+    public boolean hasArray() {
+        return mData != null;
+    }
+
+    /**
+     * The backing array, for sequential scans and direct writes.
+     *
+     * @return The backing array, i, t, s, a
+     *
+     * @throws UnsupportedOperationException If the data is not on the heap
+     */
+    public long[] array() {
+        if (mData == null) throw new UnsupportedOperationException("Not on heap: " + mStorage);
+        return mData;
+    }
+
+    /**
+     * Only meaningful for heap tensors.
+     *
+     * @param i The run
+     * @param t The period
+     *
+     * @return The offset of the given period of the given run in the backing array
+     */
+    public int offset(int i, int t) {
+        return (mFirstRun+i)*mRunStride + t*mPeriodStride;
+    }
+
+    /**
+     * Only meaningful for heap tensors.
+     *
+     * @param i The run
+     * @param t The period
+     * @param s The gender
+     * @param a The age
+     *
+     * @return The offset of the given entry in the backing array
+     */
+    public int offset(int i, int t, int s, int a) {
+        return (mFirstRun+i)*mRunStride + t*mPeriodStride + s*mGenderStride + a;
+    }
+
+    /**
+     * @return The buffer holding run i
+     */
+    private LongBuffer chunk(int i) {
+        return mChunks[(mFirstRun+i) / mRunsPerChunk];
+    }
+
+    /**
+     * @return The offset of period t of run i within its buffer
+     */
+    private int chunkOffset(int i, int t) {
+        return ((mFirstRun+i) % mRunsPerChunk)*mRunStride + t*mPeriodStride;
+    }
+
+    //  Accessors
+
+    public long get(int i, int t, int s, int a) {
+        if (mData != null) return mData[offset(i, t, s, a)];
+        return chunk(i).get(chunkOffset(i, t) + s*mGenderStride + a);
+    }
+
+    public void set(int i, int t, int s, int a, long value) {
+        if (mData != null) {
+            mData[offset(i, t, s, a)] = value;
+        } else {
+            chunk(i).put(chunkOffset(i, t) + s*mGenderStride + a, value);
+        }
+    }
+
+    /**
+     * Copies a single period into the tensor.
+     * Safe to call concurrently for distinct runs.
+     *
+     * @param i      The run
+     * @param t      The period
+     * @param src    The source, s, a
+     * @param srcOff The offset of the period in src
+     */
+    public void setPeriod(int i, int t, long[] src, int srcOff) {
+        if (mData != null) {
+            System.arraycopy(src, srcOff, mData, offset(i, t), mPeriodStride);
+        } else {
+            LongBuffer chunk = chunk(i);
+            int off = chunkOffset(i, t);
+            for (int j = 0; j < mPeriodStride; j++) chunk.put(off + j, src[srcOff + j]);
+        }
+    }
+
+    /**
+     * Copies a single period into the tensor.
+     *
+     * @param i          The run
+     * @param t          The period
+     * @param population The population, s, a
+     */
+    public void setPeriod(int i, int t, long[][] population) {
+        long[] flat = new long[mPeriodStride];
+        for (int s = 0; s < S; s++) System.arraycopy(population[s], 0, flat, s*mGenderStride, A);
+        setPeriod(i, t, flat, 0);
+    }
+
+    /**
+     * Copies a single run into the tensor.
+     *
+     * @param i   The run
+     * @param run The run, t, s, a
+     */
+    public void setRun(int i, long[][][] run) {
+        for (int t = 0; t < T; t++) setPeriod(i, t, run[t]);
+    }
+
+    //  Slices
+
+    /**
+     * Copies a single period out of the tensor.
+     * Safe to call concurrently.
+     *
+     * @param i      The run
+     * @param t      The period
+     * @param dst    The destination, s, a
+     * @param dstOff The offset in dst
+     */
+    public void getPeriod(int i, int t, long[] dst, int dstOff) {
+        if (mData != null) {
+            System.arraycopy(mData, offset(i, t), dst, dstOff, mPeriodStride);
+        } else {
+            LongBuffer chunk = chunk(i);
+            int off = chunkOffset(i, t);
+            for (int j = 0; j < mPeriodStride; j++) dst[dstOff + j] = chunk.get(off + j);
+        }
+    }
+
+    /**
+     * @param i The run
+     * @param t The period
+     *
+     * @return A copy of the given period, s, a
+     */
+    public long[][] getPeriod(int i, int t) {
+        long[] flat = new long[mPeriodStride];
+        getPeriod(i, t, flat, 0);
+
+        long[][] out = new long[S][A];
+        for (int s = 0; s < S; s++) System.arraycopy(flat, s*mGenderStride, out[s], 0, A);
+        return out;
+    }
+
+    /**
+     * @param i The run
+     *
+     * @return A copy of the given run, t, s, a
+     */
+    public long[][][] getRun(int i) {
+        long[][][] out = new long[T][][];
+        for (int t = 0; t < T; t++) out[t] = getPeriod(i, t);
+        return out;
+    }
+
+    /**
+     * Copies a single run into a flat destination.
+     *
+     * @param i      The run
+     * @param dst    The destination, t, s, a
+     * @param dstOff The offset in dst
+     */
+    public void copyRun(int i, long[] dst, int dstOff) {
+        if (mData != null) {
+            System.arraycopy(mData, offset(i, 0), dst, dstOff, T*mPeriodStride);
+        } else {
+            for (int t = 0; t < T; t++) getPeriod(i, t, dst, dstOff + t*mPeriodStride);
+        }
+    }
+
+    /**
+     * @param first The first run
+     * @param last  The run after the last
+     *
+     * @return A view of the given runs, sharing this tensor's storage
+     */
+    public SwirlPopulationTensor view(int first, int last) {
+        if (first < 0 || last < first || last > I) {
+            throw new InvalidParameterException("Invalid range: " + first + "-" + last);
+        }
+        return new SwirlPopulationTensor(this, first, last-first);
+    }
+
+    /**
+     * @param first The first run
+     * @param last  The run after the last
+     *
+     * @return A copy of the given runs, i, t, s, a
+     */
+    public long[][][][] toArray(int first, int last) {
+        long[][][][] out = new long[last-first][][][];
+        for (int i = first; i < last; i++) out[i-first] = getRun(i);
+        return out;
+    }
+
+    /**
+     * @return A copy of all runs, i, t, s, a
+     */
+    public long[][][][] toArray() {
+        return toArray(0, I);
+    }
+}
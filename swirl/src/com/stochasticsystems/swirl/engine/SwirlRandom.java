@@ -0,0 +1,123 @@
+package com.stochasticsystems.swirl.engine;
+
+/**
+ * A counter-based random number generator (Philox4x32-10).
+ * <p>
+ * Every draw is a pure function of the seed and its (run, period, index) counter, so any draw
+ * can be regenerated without producing the ones before it, and draws are thread safe.
+ * <p>
+ * Created by Allan Stewart on 2018-03-04.
+ */
+public final class SwirlRandom implements SwirlNormalSource {
+    public static final String TAG = "SwirlRandom";
+
+    //  Philox constants, shared with SwirlZiggurat
+    static final long M0 = 0xD2511F53L;
+    static final long M1 = 0xCD9E8D57L;
+    static final int  W0 = 0x9E3779B9;
+    static final int  W1 = 0xBB67AE85;
+    static final int  ROUNDS = 10;
+
+    static final double TO_DOUBLE = 0x1.0p-53;
+    private static final double TWO_PI    = 2.0d * Math.PI;
+
+    private final long mSeed;
+    private final int  mK0, mK1;
+
+    /**
+     * @param seed The key, generators with the same seed produce the same draws
+     */
+    public SwirlRandom(long seed) {
+        mSeed = seed;
+        mK0 = (int) seed;
+        mK1 = (int) (seed >>> 32);
+    }
+
+    /**
+     * @return The key
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * Fills out with the 128 bit block for the given counter.
+     *
+     * @param c0  Counter word 0
+     * @param c1  Counter word 1
+     * @param c2  Counter word 2
+     * @param c3  Counter word 3
+     * @param out Two longs to fill
+     */
+    public void block(int c0, int c1, int c2, int c3, long[] out) {
+        int k0 = mK0, k1 = mK1;
+        long p0, p1;
+
+        for (int r = 0; r < ROUNDS; r++) {
+            if (r > 0) {
+                k0 += W0;
+                k1 += W1;
+            }
+            p0 = M0 * (c0 & 0xFFFFFFFFL);
+            p1 = M1 * (c2 & 0xFFFFFFFFL);
+            c0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+            c1 = (int) p1;
+            c2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+            c3 = (int) p0;
+        }
+
+        out[0] = ((long) c0 << 32) | (c1 & 0xFFFFFFFFL);
+        out[1] = ((long) c2 << 32) | (c3 & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A standard normal variate for the given counter, via Box-Muller.
+     *
+     * @param run    The run index
+     * @param period The period index
+     * @param index  The index of the draw within the period
+     *
+     * @return The variate
+     */
+    @Override
+    public double gaussian(int run, int period, int index) {
+        int k0 = mK0, k1 = mK1;
+        int c0 = run, c1 = period, c2 = index, c3 = 0;
+        long p0, p1;
+
+        //  Inlined block(), this is called several times per period
+        for (int r = 0; r < ROUNDS; r++) {
+            if (r > 0) {
+                k0 += W0;
+                k1 += W1;
+            }
+            p0 = M0 * (c0 & 0xFFFFFFFFL);
+            p1 = M1 * (c2 & 0xFFFFFFFFL);
+            c0 = (int) (p1 >>> 32) ^ c1 ^ k0;
+            c1 = (int) p1;
+            c2 = (int) (p0 >>> 32) ^ c3 ^ k1;
+            c3 = (int) p0;
+        }
+
+        //  u1 in (0, 1], u2 in [0, 1)
+        double u1 = ((((long) c0 << 32 | (c1 & 0xFFFFFFFFL)) >>> 11) + 1L) * TO_DOUBLE;
+        double u2 = (((long) c2 << 32 | (c3 & 0xFFFFFFFFL)) >>> 11) * TO_DOUBLE;
+
+        return Math.sqrt(-2.0d * Math.log(u1)) * Math.cos(TWO_PI * u2);
+    }
+
+    /**
+     * A uniform variate in [0, 1) for the given counter.
+     *
+     * @param run    The run index
+     * @param period The period index
+     * @param index  The index of the draw within the period
+     *
+     * @return The variate
+     */
+    public double uniform(int run, int period, int index) {
+        long[] out = new long[2];
+        block(run, period, index, 0, out);
+        return (out[0] >>> 11) * TO_DOUBLE;
+    }
+}
@@ -0,0 +1,267 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A bounded in-memory cache of results, keyed by parameters, seed, draw configuration and
+ * number of runs, so repeated scenarios are not simulated again. The draw configuration is the
+ * engine's source of EVs and whether its runs are antithetic, see SwirlEngine.setNormalSource
+ * and setAntithetic. Engines that agree on all of these produce identical results, so a hit is
+ * exactly what a new simulation would return. Lookups by parameters and seed alone are for the
+ * default draws, a ziggurat on the seed without pairs. Engines with a source other than
+ * SwirlZiggurat, SwirlRandom or SwirlSobol have draws that cannot be identified, so their
+ * results are never cached: they always miss and are not put.
+ * <p>
+ * Entries are weighed by their approximate size in bytes and the least recently used are
+ * evicted once the capacity is exceeded. By default only statistics are held, see
+ * SwirlOutputBundle.toSummary, so an entry's size does not depend on the number of runs.
+ * Cached results are shared between callers, who must not add to them.
+ * <p>
+ * Thread safe. Simulations on a miss run outside the lock, so concurrent misses on the same key
+ * may each simulate it.
+ * <p>
+ * Created by Allan Stewart on 2018-06-03.
+ */
+public class SwirlResultCache {
+    public static final String TAG = "SwirlResultCache";
+
+    public final static long CAPACITY_DEFAULT = 64L << 20; // Bytes
+
+    private final LinkedHashMap<Key, SwirlOutputBundle> mEntries =
+            new LinkedHashMap<>(16, 0.75f, true); // Least recently used first
+    private final long mCapacity;
+    private final boolean mSummaryOnly;
+
+    private long mWeight = 0L;
+    private long mHits = 0L, mMisses = 0L, mEvictions = 0L;
+
+    /**
+     * Creates a cache of CAPACITY_DEFAULT bytes holding only statistics.
+     */
+    public SwirlResultCache() {
+        this(CAPACITY_DEFAULT, true);
+    }
+
+    /**
+     * @param capacity    The approximate size in bytes held at most
+     * @param summaryOnly Whether to hold only the statistics of results that keep their runs
+     */
+    public SwirlResultCache(long capacity, boolean summaryOnly) {
+        if (capacity < 0L) {
+            throw new InvalidParameterException("Invalid capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mSummaryOnly = summaryOnly;
+    }
+
+    /**
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     * @param runs       The number of runs executed
+     *
+     * @return The cached result of the default draws, or null
+     */
+    public SwirlOutputBundle get(SwirlParameterBundle parameters, long seed, int runs) {
+        return get(new Key(parameters, seed, new byte[0], runs));
+    }
+
+    /**
+     * @param engine The engine, whose parameters, seed and draw configuration are looked up
+     * @param runs   The number of runs executed
+     *
+     * @return The cached result, or null, always for a source that cannot be identified
+     */
+    public SwirlOutputBundle get(SwirlEngine engine, int runs) {
+        byte[] draws = engine.getDrawConfiguration();
+        if (draws == null) return null;
+        return get(new Key(engine.getParameters(), engine.getSeed(), draws, runs));
+    }
+
+    private synchronized SwirlOutputBundle get(Key key) {
+        SwirlOutputBundle output = mEntries.get(key);
+        if (output != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return output;
+    }
+
+    /**
+     * Caches an engine's output, replacing any with the same key. Results larger than the
+     * capacity, or of a source that cannot be identified, are not cached.
+     *
+     * @param engine The engine, its output keyed by its parameters, seed, draw configuration and
+     *               the output's complete runs
+     *
+     * @return The result as cached, a summary if only statistics are held
+     */
+    public SwirlOutputBundle put(SwirlEngine engine) {
+        SwirlOutputBundle output = engine.getOutput();
+        if (output == null) {
+            throw new InvalidParameterException("No output");
+        }
+        byte[] draws = engine.getDrawConfiguration();
+        if (mSummaryOnly && output.getPopulationTensor() != null) output = output.toSummary();
+        if (draws == null) return output;
+        Key key = new Key(engine.getParameters(), engine.getSeed(), draws,
+                          output.getCompleteRuns());
+        long weight = weigh(output);
+
+        synchronized (this) {
+            SwirlOutputBundle old = mEntries.remove(key);
+            if (old != null) mWeight -= weigh(old);
+            if (weight > mCapacity) return output;
+
+            mEntries.put(key, output);
+            mWeight += weight;
+
+            Iterator<SwirlOutputBundle> eldest = mEntries.values().iterator();
+            while (mWeight > mCapacity && eldest.hasNext()) {
+                mWeight -= weigh(eldest.next());
+                eldest.remove();
+                mEvictions++;
+            }
+        }
+        return output;
+    }
+
+    /**
+     * Returns the cached result of every run of the parameters with the default draws,
+     * simulating and caching it on a miss.
+     *
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     *
+     * @return The result
+     */
+    public SwirlOutputBundle getOrRun(SwirlParameterBundle parameters, long seed) {
+        return getOrRun(new SwirlEngine(parameters, seed));
+    }
+
+    /**
+     * Returns the cached result of every run of an engine, completing it and caching its output
+     * on a miss.
+     *
+     * @param engine The engine, configured but not yet initialized
+     *
+     * @return The result
+     */
+    public SwirlOutputBundle getOrRun(SwirlEngine engine) {
+        SwirlOutputBundle output = get(engine, engine.getParameters().getNRuns());
+        if (output != null) return output;
+
+        engine.setKeepData(!mSummaryOnly);
+        engine.setOutput(new SwirlOutputBundle(engine.getParameters(), !mSummaryOnly));
+        engine.completeTensor();
+
+        return put(engine);
+    }
+
+    /**
+     * The approximate size of a result: its statistics, four values per age class and a few
+     * dozen per period, and its runs when held on the heap.
+     *
+     * @param output The result
+     *
+     * @return The size in bytes
+     */
+    static long weigh(SwirlOutputBundle output) {
+        SwirlParameterBundle parameters = output.getParameters();
+        long T = parameters.getNPeriods()+1;
+        long SA = parameters.nGenders() * (parameters.getMaxAge()+1L);
+        long weight = 8L * T * (4L*SA + 8L*parameters.nGenders() + 16L + output.getReplicates());
+
+        SwirlPopulationTensor data = output.getPopulationTensor();
+        if (data != null && data.getStorage() == SwirlPopulationTensor.Storage.HEAP) {
+            weight += 8L * data.nRuns() * T * SA;
+        }
+        return weight;
+    }
+
+    /**
+     * Drops every entry, keeping the metrics.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mWeight = 0L;
+    }
+
+    //  Metrics
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return The approximate size in bytes held
+     */
+    public synchronized long getWeight() {
+        return mWeight;
+    }
+
+    public long getCapacity() {
+        return mCapacity;
+    }
+
+    public boolean isSummaryOnly() {
+        return mSummaryOnly;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * @return The fraction of lookups that hit, NaN before any
+     */
+    public synchronized double getHitRate() {
+        long lookups = mHits + mMisses;
+        return (lookups == 0L) ? Double.NaN : mHits / (double) lookups;
+    }
+
+    /**
+     * Parameters, seed, draw configuration and number of runs.
+     */
+    private static final class Key {
+        private final SwirlParameterBundle mParameters;
+        private final long   mSeed;
+        private final byte[] mDraws; // See SwirlEngine.getDrawConfiguration
+        private final int    mRuns;
+        private final int    mHash;
+
+        Key(SwirlParameterBundle parameters, long seed, byte[] draws, int runs) {
+            mParameters = parameters;
+            mSeed = seed;
+            mDraws = draws;
+            mRuns = runs;
+            mHash = 31 * (31 * (31 * parameters.hashCode() + (int) (seed ^ (seed >>> 32))) +
+                          Arrays.hashCode(draws)) + runs;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return mSeed == that.mSeed && mRuns == that.mRuns &&
+                   Arrays.equals(mDraws, that.mDraws) && mParameters.equals(that.mParameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+}
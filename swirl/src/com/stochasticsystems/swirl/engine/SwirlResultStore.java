@@ -0,0 +1,453 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A persistent store of results on local disk, so restarted workers reuse earlier simulations
+ * rather than running them again. Complements SwirlResultCache, which holds results in memory.
+ * <p>
+ * Each result is stored in its own file, named by the SHA-256 of the canonical encoding of its
+ * parameters, see SwirlParameterBundle.toBytes, the seed, the engine's draw configuration and
+ * the number of runs, so equal scenarios share a key across processes and platforms. The draw
+ * configuration is the source of EVs and whether runs are antithetic, see SwirlResultCache,
+ * and is empty for the default draws. Engines with a source other than SwirlZiggurat,
+ * SwirlRandom or SwirlSobol have draws that cannot be identified, so they have no key, always
+ * miss and are not stored. Files hold only statistics, see
+ * SwirlOutputBundle.toSummary, with the encodings themselves, so a hash collision is detected,
+ * and a checksum, so a damaged file is treated as missing.
+ * <p>
+ * Writes go to a temporary file in the same directory, are forced to disk, then moved over the
+ * target atomically, so readers see either no file or a complete one. The index of keys, sizes
+ * and last use is held in memory and rebuilt from the directory, which remains the source of
+ * truth, when the store is opened. Last use is the file's modification time, updated on hits.
+ * <p>
+ * Thread safe within a process. Several processes may share a directory; each sees the others'
+ * results on lookup, but only its own in size() and getBytes() until reopened.
+ * <p>
+ * Created by Allan Stewart on 2018-06-10.
+ */
+public class SwirlResultStore {
+    public static final String TAG = "SwirlResultStore";
+
+    public final static String EXTENSION = ".swirl";
+    private final static String TEMP_EXTENSION = ".tmp";
+    private final static int    MAGIC = 0x5357524C; // "SWRL"
+    private final static int    VERSION = 1;
+
+    private final File mDirectory;
+    private final Map<String, Entry> mIndex = new HashMap<>();
+    private long mBytes = 0L;
+
+    /**
+     * Opens a store, creating the directory if needed. Temporary files left by interrupted
+     * writes are deleted.
+     *
+     * @param directory The directory
+     *
+     * @throws IOException If the directory cannot be created or listed
+     */
+    public SwirlResultStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        mDirectory = directory;
+
+        File[] files = directory.listFiles();
+        if (files == null) throw new IOException("Unable to list " + directory);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_EXTENSION)) {
+                if (!file.delete()) file.deleteOnExit();
+            } else if (name.endsWith(EXTENSION)) {
+                index(name.substring(0, name.length() - EXTENSION.length()), file);
+            }
+        }
+    }
+
+    /**
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     * @param runs       The number of runs executed
+     *
+     * @return The key results of the default draws are stored under, a SHA-256 in hexadecimal
+     */
+    public static String key(SwirlParameterBundle parameters, long seed, int runs) {
+        return key(parameters, seed, new byte[0], runs);
+    }
+
+    /**
+     * @param engine The engine, whose parameters, seed and draw configuration are keyed
+     * @param runs   The number of runs executed
+     *
+     * @return The key its results are stored under, a SHA-256 in hexadecimal, or null for a
+     *         source that cannot be identified
+     */
+    public static String key(SwirlEngine engine, int runs) {
+        byte[] draws = engine.getDrawConfiguration();
+        if (draws == null) return null;
+        return key(engine.getParameters(), engine.getSeed(), draws, runs);
+    }
+
+    private static String key(SwirlParameterBundle parameters, long seed, byte[] draws,
+                              int runs) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e); // Required of every JVM
+        }
+        digest.update(parameters.toBytes());
+        for (int b = 56; b >= 0; b -= 8) digest.update((byte) (seed >>> b));
+        for (int b = 24; b >= 0; b -= 8) digest.update((byte) (runs >>> b));
+        digest.update(draws); // Empty for the default draws
+
+        StringBuilder sb = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+              .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     * @param runs       The number of runs executed
+     *
+     * @return The stored statistics of the default draws, or null if missing or unreadable
+     */
+    public SwirlOutputBundle get(SwirlParameterBundle parameters, long seed, int runs) {
+        return get(parameters, seed, new byte[0], runs);
+    }
+
+    /**
+     * @param engine The engine, whose parameters, seed and draw configuration are looked up
+     * @param runs   The number of runs executed
+     *
+     * @return The stored statistics, or null if missing, unreadable or of a source that cannot
+     *         be identified
+     */
+    public SwirlOutputBundle get(SwirlEngine engine, int runs) {
+        byte[] draws = engine.getDrawConfiguration();
+        if (draws == null) return null;
+        return get(engine.getParameters(), engine.getSeed(), draws, runs);
+    }
+
+    private SwirlOutputBundle get(SwirlParameterBundle parameters, long seed, byte[] draws,
+                                  int runs) {
+        String key = key(parameters, seed, draws, runs);
+        File file = file(key);
+        SwirlOutputBundle output;
+        try {
+            output = read(file, parameters, seed, draws, runs);
+        } catch (IOException e) {
+            output = null;
+        }
+
+        synchronized (this) {
+            if (output == null) {
+                if (!file.exists()) unindex(key);
+                return null;
+            }
+            long now = System.currentTimeMillis();
+            file.setLastModified(now); // Best effort, as some file systems refuse
+            if (!mIndex.containsKey(key)) index(key, file);
+            Entry entry = mIndex.get(key);
+            if (entry != null) entry.mUsed = now;
+        }
+        return output;
+    }
+
+    /**
+     * @return Whether a result of the default draws is stored, without reading it
+     */
+    public boolean contains(SwirlParameterBundle parameters, long seed, int runs) {
+        return file(key(parameters, seed, runs)).isFile();
+    }
+
+    /**
+     * Stores the statistics of an engine's output, replacing any with the same key. Those of a
+     * source that cannot be identified are not stored.
+     *
+     * @param engine The engine, its output keyed by its parameters, seed, draw configuration and
+     *               the output's complete runs
+     *
+     * @return The result as stored, a summary
+     *
+     * @throws IOException If it cannot be written, the store is unchanged
+     */
+    public SwirlOutputBundle put(SwirlEngine engine) throws IOException {
+        SwirlOutputBundle output = engine.getOutput();
+        if (output == null) {
+            throw new InvalidParameterException("No output");
+        }
+        SwirlParameterBundle parameters = engine.getParameters();
+        long seed = engine.getSeed();
+        byte[] draws = engine.getDrawConfiguration();
+        boolean completed = output.isCompleted();
+        SwirlAccumulator sums = output.toSums();
+        if (draws == null) return SwirlOutputBundle.fromSums(parameters, sums, completed);
+        String key = key(parameters, seed, draws, sums.mNRuns);
+        File file = file(key);
+
+        File temp = File.createTempFile(key, TEMP_EXTENSION, mDirectory);
+        try {
+            FileOutputStream stream = new FileOutputStream(temp);
+            try {
+                CheckedOutputStream checked =
+                        new CheckedOutputStream(new BufferedOutputStream(stream), new CRC32());
+                DataOutputStream out = new DataOutputStream(checked);
+                write(out, parameters, seed, draws, sums, completed);
+                out.flush();
+                out.writeLong(checked.getChecksum().getValue());
+                out.flush();
+                stream.getFD().sync();
+            } finally {
+                stream.close();
+            }
+
+            replace(temp, file);
+        } finally {
+            if (temp.exists() && !temp.delete()) temp.deleteOnExit();
+        }
+
+        synchronized (this) {
+            unindex(key);
+            index(key, file);
+        }
+        return SwirlOutputBundle.fromSums(parameters, sums, completed);
+    }
+
+    /**
+     * Returns the stored result of every run of the parameters with the default draws,
+     * simulating and storing it if missing. A result that cannot be stored is still returned.
+     *
+     * @param parameters The parameters
+     * @param seed       The engine seed
+     *
+     * @return The result, a summary
+     */
+    public SwirlOutputBundle getOrRun(SwirlParameterBundle parameters, long seed) {
+        return getOrRun(new SwirlEngine(parameters, seed));
+    }
+
+    /**
+     * Returns the stored result of every run of an engine, completing it and storing its output
+     * if missing. A result that cannot be stored is still returned.
+     *
+     * @param engine The engine, configured but not yet initialized
+     *
+     * @return The result, a summary
+     */
+    public SwirlOutputBundle getOrRun(SwirlEngine engine) {
+        SwirlOutputBundle output = get(engine, engine.getParameters().getNRuns());
+        if (output != null) return output;
+
+        output = new SwirlOutputBundle(engine.getParameters(), false);
+        engine.setKeepData(false);
+        engine.setOutput(output);
+        engine.completeTensor();
+
+        try {
+            return put(engine);
+        } catch (IOException e) {
+            return output;
+        }
+    }
+
+    /**
+     * Deletes results unused for longer than the maximum age, then the least recently used until
+     * at most the maximum size remains.
+     *
+     * @param maxAge   The maximum time since last use in milliseconds, or Long.MAX_VALUE
+     * @param maxBytes The maximum total size in bytes, or Long.MAX_VALUE
+     *
+     * @return The number of results deleted
+     */
+    public synchronized int collect(long maxAge, long maxBytes) {
+        if (maxAge < 0L || maxBytes < 0L) {
+            throw new InvalidParameterException("Invalid limits: " + maxAge + ", " + maxBytes);
+        }
+
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>(mIndex.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, Entry>>() {
+            @Override
+            public int compare(Map.Entry<String, Entry> e1, Map.Entry<String, Entry> e2) {
+                return Long.compare(e1.getValue().mUsed, e2.getValue().mUsed);
+            }
+        });
+
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        for (Map.Entry<String, Entry> entry : entries) { // Least recently used first
+            boolean expired = now - entry.getValue().mUsed > maxAge;
+            if (!expired && mBytes <= maxBytes) break;
+            File file = file(entry.getKey());
+            if (file.delete() || !file.exists()) {
+                unindex(entry.getKey());
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes every result.
+     */
+    public synchronized void clear() {
+        collect(0L, 0L);
+    }
+
+    //  File format
+
+    private static void write(DataOutputStream out, SwirlParameterBundle parameters, long seed,
+                              byte[] draws, SwirlAccumulator sums, boolean completed)
+            throws IOException {
+        byte[] encoding = parameters.toBytes();
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(encoding.length);
+        out.write(encoding);
+        out.writeLong(seed);
+        out.writeInt(draws.length);
+        out.write(draws);
+        out.writeInt(sums.mNRuns);
+        sums.write(out);
+        out.writeInt(sums.mNExtinct);
+        out.writeBoolean(completed);
+    }
+
+    /**
+     * @return The statistics, or null if the file is missing or does not hold them
+     */
+    private static SwirlOutputBundle read(File file, SwirlParameterBundle parameters, long seed,
+                                          byte[] draws, int runs) throws IOException {
+        if (!file.isFile()) return null;
+
+        CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32());
+        DataInputStream in = new DataInputStream(checked);
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            byte[] encoding = parameters.toBytes();
+            if (in.readInt() != encoding.length) return null;
+            byte[] stored = new byte[encoding.length];
+            in.readFully(stored);
+            if (!Arrays.equals(stored, encoding) || in.readLong() != seed) {
+                return null; // A collision, or damaged
+            }
+            if (in.readInt() != draws.length) return null;
+            stored = new byte[draws.length];
+            in.readFully(stored);
+            if (!Arrays.equals(stored, draws) || in.readInt() != runs) return null;
+
+            SwirlAccumulator sums = SwirlAccumulator.read(in, parameters, file.length());
+            sums.mNRuns = runs;
+            sums.mNExtinct = in.readInt();
+            if (sums.mNExtinct < 0 || sums.mNExtinct > runs) return null;
+            boolean completed = in.readBoolean();
+
+            long checksum = checked.getChecksum().getValue();
+            if (in.readLong() != checksum || in.read() != -1) return null;
+
+            return SwirlOutputBundle.fromSums(parameters, sums, completed);
+        } catch (IOException | RuntimeException e) { // Truncated, or impossible lengths
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Moves a file over another atomically where the file system allows, so readers see either
+     * file whole, see SwirlEngine.checkpoint.
+     *
+     * @param source The file, in the same directory as the target
+     * @param target The file replaced
+     *
+     * @throws IOException If it cannot be moved
+     */
+    static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    //  Index
+
+    private File file(String key) {
+        return new File(mDirectory, key + EXTENSION);
+    }
+
+    private void index(String key, File file) {
+        long bytes = file.length();
+        if (bytes == 0L && !file.exists()) return;
+        Entry entry = new Entry(bytes, file.lastModified());
+        Entry old = mIndex.put(key, entry);
+        if (old != null) mBytes -= old.mBytes;
+        mBytes += bytes;
+    }
+
+    private void unindex(String key) {
+        Entry old = mIndex.remove(key);
+        if (old != null) mBytes -= old.mBytes;
+    }
+
+    //  Getters
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return The number of results indexed
+     */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * @return The total size in bytes of the results indexed
+     */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Size and last use of a stored result.
+     */
+    private static final class Entry {
+        private final long mBytes;
+        private long mUsed; // Milliseconds since the epoch
+
+        Entry(long bytes, long used) {
+            mBytes = bytes;
+            mUsed = used;
+        }
+    }
+}
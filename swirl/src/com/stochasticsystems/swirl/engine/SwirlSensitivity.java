@@ -0,0 +1,333 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Estimates Sobol sensitivity indices of the extinction probability, or the final mean
+ * population, to factors drawn uniformly between bounds, see SwirlFactor.
+ * <p>
+ * Follows Saltelli's scheme: two independent samples A and B of N points, and for each factor
+ * i the sample AB_i, A with column i from B. The N(k+2) scenarios are simulated together as a
+ * SwirlSweep on common random numbers, so the differences the estimators rest on are not
+ * swamped by the runs' own variation. Every index reuses the A and B scenarios. First order
+ * indices use the Saltelli 2010 estimator and total indices Jansen's, and percentile intervals
+ * come from resampling the N points, without further simulation.
+ * <p>
+ * Each scenario's output is itself estimated from the base parameters' number of runs, and
+ * that error inflates the variance, so indices are biased towards 0 when runs are few.
+ * <p>
+ * Created by Allan Stewart on 2018-05-27.
+ */
+public class SwirlSensitivity {
+    public static final String TAG = "SwirlSensitivity";
+
+    /**
+     * The output whose variance is decomposed.
+     */
+    public enum Output {
+        EXTINCTION, FINAL_MEAN
+    }
+
+    public final static int    BOOTSTRAP_DEFAULT  = 1000;
+    public final static double CONFIDENCE_DEFAULT = 0.95d;
+
+    private final SwirlFactor[] mFactors;
+    private final int         N, K;
+    private final SwirlSweep  mSweep; // A, B, then each AB_i, N points each
+
+    private Output mOutput = Output.EXTINCTION;
+    private int    mBootstrap = BOOTSTRAP_DEFAULT;
+    private double mConfidence = CONFIDENCE_DEFAULT;
+    private long   mBootstrapSeed;
+
+    //  Results
+    private double[]   mFirstOrder, mTotal; // Factor
+    private double[][] mFirstOrderIntervals, mTotalIntervals; // Factor, lower & upper
+    private double     mVariance;
+
+    /**
+     * @param base    The parameters before the factors are applied, their number of runs is
+     *                used for each scenario
+     * @param factors The factors
+     * @param lower   The lower bound of each factor
+     * @param upper   The upper bound of each factor, every value between must be valid
+     * @param n       The number of base points, N
+     * @param seed    The seed of the samples and the bootstrap
+     */
+    public SwirlSensitivity(SwirlParameterBundle base, SwirlFactor[] factors, double[] lower,
+                            double[] upper, int n, long seed) {
+        if (lower.length != factors.length || upper.length != factors.length) {
+            throw new InvalidParameterException("Invalid bounds");
+        }
+        if (n < 2) {
+            throw new InvalidParameterException("Invalid points: " + n);
+        }
+
+        mFactors = factors.clone();
+        N = n;
+        K = factors.length;
+        mBootstrapSeed = seed;
+
+        Random random = new Random(seed);
+        double[][] a = new double[N][K], b = new double[N][K];
+        for (double[][] sample : new double[][][]{a, b}) {
+            for (int j = 0; j < N; j++) {
+                for (int i = 0; i < K; i++) {
+                    sample[j][i] = lower[i] + random.nextDouble() * (upper[i] - lower[i]);
+                }
+            }
+        }
+
+        double[][] points = new double[N*(K+2)][];
+        for (int j = 0; j < N; j++) {
+            points[j] = a[j];
+            points[N+j] = b[j];
+            for (int i = 0; i < K; i++) {
+                points[(i+2)*N + j] = a[j].clone();
+                points[(i+2)*N + j][i] = b[j][i];
+            }
+        }
+
+        mSweep = new SwirlSweep(base, factors, points);
+        mSweep.setCommonRandomNumbers(true);
+        for (int k = 0; k < points.length; k++) {
+            if (mSweep.getParameters(k) == null) {
+                throw new InvalidParameterException("Invalid parameters at " +
+                                                    Arrays.toString(points[k]));
+            }
+        }
+    }
+
+    /**
+     * Simulates every scenario on the common pool and estimates the indices.
+     *
+     * @param seed The seed every scenario shares
+     */
+    public void run(long seed) {
+        run(seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Simulates every scenario and estimates the indices.
+     *
+     * @param seed The seed every scenario shares
+     * @param pool The pool, or null to execute on the calling thread
+     */
+    public void run(long seed, ForkJoinPool pool) {
+        SwirlOutputBundle[] results = mSweep.run(seed, pool);
+
+        double[] y = new double[results.length];
+        for (int k = 0; k < y.length; k++) {
+            SwirlOutputBundle result = results[k];
+            y[k] = (mOutput == Output.EXTINCTION) ? result.getExtinctionPercent() :
+                   result.getSummaryMeans()[result.getParameters().getNPeriods()];
+        }
+
+        int[] all = new int[N];
+        for (int j = 0; j < N; j++) all[j] = j;
+        double[][] estimate = indices(y, all);
+        mFirstOrder = estimate[0];
+        mTotal = estimate[1];
+        mVariance = estimate[2][0];
+
+        //  Percentile bootstrap over the base points
+        double[][] firstOrders = new double[K][mBootstrap], totals = new double[K][mBootstrap];
+        Random random = new Random(mBootstrapSeed);
+        int[] resample = new int[N];
+        for (int r = 0; r < mBootstrap; r++) {
+            for (int j = 0; j < N; j++) resample[j] = random.nextInt(N);
+            estimate = indices(y, resample);
+            for (int i = 0; i < K; i++) {
+                firstOrders[i][r] = estimate[0][i];
+                totals[i][r] = estimate[1][i];
+            }
+        }
+        mFirstOrderIntervals = new double[K][];
+        mTotalIntervals = new double[K][];
+        for (int i = 0; i < K; i++) {
+            mFirstOrderIntervals[i] = interval(firstOrders[i]);
+            mTotalIntervals[i] = interval(totals[i]);
+        }
+    }
+
+    /**
+     * @param y      The outputs, A, B, then each AB_i
+     * @param points The base points used, possibly repeated
+     *
+     * @return The first order indices, the total indices, and the output variance alone
+     */
+    private double[][] indices(double[] y, int[] points) {
+        double sum = 0.0d, squares = 0.0d;
+        for (int j : points) {
+            sum += y[j] + y[N+j];
+            squares += y[j]*y[j] + y[N+j]*y[N+j];
+        }
+        double mean = sum / (2*N);
+        double variance = squares / (2*N) - mean*mean;
+
+        double[] first = new double[K], total = new double[K];
+        for (int i = 0; i < K; i++) {
+            double s = 0.0d, st = 0.0d;
+            int ab = (i+2)*N;
+            for (int j : points) {
+                double d = y[ab+j] - y[j];
+                s += y[N+j] * d;
+                st += d * d;
+            }
+            first[i] = (variance > 0.0d) ? s / N / variance : Double.NaN;
+            total[i] = (variance > 0.0d) ? st / (2*N) / variance : Double.NaN;
+        }
+
+        return new double[][]{first, total, {variance}};
+    }
+
+    /**
+     * @return The central confidence interval of the resampled estimates, sorted in place
+     */
+    private double[] interval(double[] estimates) {
+        Arrays.sort(estimates);
+        double alpha = (1.0d - mConfidence) / 2.0d;
+        int lower = (int) Math.floor(alpha * (estimates.length - 1));
+        int upper = (int) Math.ceil((1.0d - alpha) * (estimates.length - 1));
+        return new double[]{estimates[lower], estimates[upper]};
+    }
+
+    /**
+     * The indices as a table, a row per factor: its first order index and interval, then its
+     * total index and interval.
+     *
+     * @param delimiter The column delimiter
+     *
+     * @return The table, with a header
+     */
+    public String toTable(String delimiter) {
+        checkRun();
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Factor").append(delimiter).append("FirstOrder").append(delimiter)
+          .append("Lower").append(delimiter).append("Upper").append(delimiter)
+          .append("Total").append(delimiter).append("Lower").append(delimiter)
+          .append("Upper").append('\n');
+        for (int i = 0; i < K; i++) {
+            sb.append(mFactors[i].getName()).append(delimiter)
+              .append(mFirstOrder[i]).append(delimiter)
+              .append(mFirstOrderIntervals[i][0]).append(delimiter)
+              .append(mFirstOrderIntervals[i][1]).append(delimiter)
+              .append(mTotal[i]).append(delimiter)
+              .append(mTotalIntervals[i][0]).append(delimiter)
+              .append(mTotalIntervals[i][1]).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void checkRun() {
+        if (mFirstOrder == null) {
+            throw new IllegalStateException("Not run");
+        }
+    }
+
+    //  Results
+
+    /**
+     * @return The first order index of each factor, the share of the output variance due to
+     *         it alone
+     */
+    public double[] getFirstOrder() {
+        checkRun();
+        return mFirstOrder.clone();
+    }
+
+    /**
+     * @return The total index of each factor, the share of the output variance involving it
+     */
+    public double[] getTotal() {
+        checkRun();
+        return mTotal.clone();
+    }
+
+    /**
+     * @return The confidence interval of each first order index, factor, lower & upper
+     */
+    public double[][] getFirstOrderIntervals() {
+        checkRun();
+        return mFirstOrderIntervals.clone();
+    }
+
+    /**
+     * @return The confidence interval of each total index, factor, lower & upper
+     */
+    public double[][] getTotalIntervals() {
+        checkRun();
+        return mTotalIntervals.clone();
+    }
+
+    /**
+     * @return The variance of the output over the A and B samples
+     */
+    public double getVariance() {
+        checkRun();
+        return mVariance;
+    }
+
+    /**
+     * @return The number of scenarios simulated, N(k+2)
+     */
+    public int getEvaluations() {
+        return mSweep.nScenarios();
+    }
+
+    /**
+     * @return The scenarios, A, B, then each AB_i
+     */
+    public SwirlSweep getSweep() {
+        return mSweep;
+    }
+
+    public SwirlFactor[] getFactors() {
+        return mFactors.clone();
+    }
+
+    //  Settings
+
+    public Output getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * @param output The output decomposed, the extinction probability by default
+     */
+    public void setOutput(Output output) {
+        mOutput = output;
+    }
+
+    public int getBootstrap() {
+        return mBootstrap;
+    }
+
+    /**
+     * @param bootstrap The number of resamples behind the intervals
+     */
+    public void setBootstrap(int bootstrap) {
+        if (bootstrap < 2) {
+            throw new InvalidParameterException("Invalid resamples: " + bootstrap);
+        }
+        mBootstrap = bootstrap;
+    }
+
+    public double getConfidence() {
+        return mConfidence;
+    }
+
+    /**
+     * @param confidence The coverage of the intervals, 0.95 by default
+     */
+    public void setConfidence(double confidence) {
+        if (!(confidence > 0.0d && confidence < 1.0d)) {
+            throw new InvalidParameterException("Invalid confidence: " + confidence);
+        }
+        mConfidence = confidence;
+    }
+}
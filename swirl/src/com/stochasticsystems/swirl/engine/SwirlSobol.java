@@ -0,0 +1,235 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+
+/**
+ * A randomized quasi-Monte Carlo source of standard normal variates. Each run is a point of a
+ * Sobol sequence with one dimension per EV, (period-1)*3 + index, mapped through the inverse
+ * normal distribution.
+ * <p>
+ * Points are Owen scrambled (nested uniform scrambling, by the hash of Burley 2020) with a
+ * seed per replicate and dimension, so each replicate is an independent randomization of the
+ * same low-discrepancy sequence. Runs are dealt to replicates in turn, run i being point
+ * i / R of replicate i % R, and the spread of the replicate means estimates the error, see
+ * SwirlOutputBundle.getReplicateSummaryVariances. Balance is best when each replicate
+ * receives a power of two runs.
+ * <p>
+ * The primitive polynomials are found by search in order of degree. The initial direction
+ * numbers are fixed odd values from a hash rather than tabulated optimized ones, which the
+ * scrambling makes up for in part.
+ * <p>
+ * Created by Allan Stewart on 2018-04-22.
+ */
+public final class SwirlSobol implements SwirlNormalSource {
+    public static final String TAG = "SwirlSobol";
+
+    private static final int BITS = 32;
+
+    //  Inverse normal, Acklam's rational approximations, relative error below 1.2e-9
+    private static final double[] A = {-3.969683028665376e+01, 2.209460984245205e+02,
+                                       -2.759285104469687e+02, 1.383577518672690e+02,
+                                       -3.066479806614716e+01, 2.506628277459239e+00};
+    private static final double[] B = {-5.447609879822406e+01, 1.615858368580409e+02,
+                                       -1.556989798598866e+02, 6.680131188771972e+01,
+                                       -1.328068155288572e+01};
+    private static final double[] C = {-7.784894002430293e-03, -3.223964580411365e-01,
+                                       -2.400758277161838e+00, -2.549732539343734e+00,
+                                       4.374664141464968e+00, 2.938163982698783e+00};
+    private static final double[] D = {7.784695709041462e-03, 3.224671290700398e-01,
+                                       2.445134137142996e+00, 3.754408661907416e+00};
+    private static final double P_LOW = 0.02425d;
+
+    private final long  mSeed;
+    private final int   mDimensions;
+    private final int   mReplicates;
+    private final int[] mDirections; // Dimension, bit
+    private final int[] mScrambles; // Replicate, dimension
+
+    /**
+     * @param seed       The scrambling key, sources with the same seed produce the same
+     *                   variates
+     * @param nPeriods   The number of periods, excluding the initial one, which has no EVs
+     * @param replicates The number of independent scramblings, R
+     */
+    public SwirlSobol(long seed, int nPeriods, int replicates) {
+        if (nPeriods < 1 || nPeriods > SwirlEngine.N_PERIODS_MAX) {
+            throw new InvalidParameterException("Invalid periods: " + nPeriods);
+        }
+        if (replicates < 1) {
+            throw new InvalidParameterException("Invalid replicates: " + replicates);
+        }
+        mSeed = seed;
+        mDimensions = nPeriods * 3;
+        mReplicates = replicates;
+        mDirections = directions(mDimensions);
+        mScrambles = new int[replicates * mDimensions];
+        for (int r = 0; r < replicates; r++) {
+            for (int d = 0; d < mDimensions; d++) {
+                mScrambles[r*mDimensions + d] = (int) mix(seed + mix(((long) r << 32) | d));
+            }
+        }
+    }
+
+    /**
+     * @return The scrambling key
+     */
+    public long getSeed() {
+        return mSeed;
+    }
+
+    /**
+     * @return The number of dimensions, three per period
+     */
+    public int getDimensions() {
+        return mDimensions;
+    }
+
+    /**
+     * @return The number of independent scramblings, R
+     */
+    public int getReplicates() {
+        return mReplicates;
+    }
+
+    @Override
+    public double gaussian(int run, int period, int index) {
+        int d = (period-1)*3 + index;
+        if (run < 0 || period < 1 || index < 0 || index > 2 || d >= mDimensions) {
+            throw new InvalidParameterException("Invalid counter: " + run + ", " + period +
+                                                ", " + index);
+        }
+
+        int n = run / mReplicates, r = run - n * mReplicates;
+        int x = 0;
+        for (int g = n ^ (n >>> 1), k = d * BITS; g != 0; g >>>= 1, k++) { // Gray code order
+            if ((g & 1) != 0) x ^= mDirections[k];
+        }
+        x = scramble(x, mScrambles[r*mDimensions + d]);
+
+        return inverseNormal(((x & 0xFFFFFFFFL) + 0.5d) * 0x1.0p-32);
+    }
+
+    /**
+     * Nested uniform scrambling: each bit is flipped by a hash of the bits above it, as the
+     * Laine-Karras permutation of the reversed bits.
+     */
+    private static int scramble(int x, int seed) {
+        x = Integer.reverse(x);
+        x += seed;
+        x ^= x * 0x6c50b47c;
+        x ^= x * 0xb82f1e52;
+        x ^= x * 0xc7afe638;
+        x ^= x * 0x8d22f6e6;
+        return Integer.reverse(x);
+    }
+
+    /**
+     * @param p A probability in (0, 1)
+     *
+     * @return The standard normal quantile of p
+     */
+    static double inverseNormal(double p) {
+        double q, r;
+
+        if (p < P_LOW) { // Lower tail
+            q = Math.sqrt(-2.0d * Math.log(p));
+            return (((((C[0]*q + C[1])*q + C[2])*q + C[3])*q + C[4])*q + C[5]) /
+                   ((((D[0]*q + D[1])*q + D[2])*q + D[3])*q + 1.0d);
+        } else if (p > 1.0d - P_LOW) { // Upper tail
+            q = Math.sqrt(-2.0d * Math.log(1.0d - p));
+            return -(((((C[0]*q + C[1])*q + C[2])*q + C[3])*q + C[4])*q + C[5]) /
+                    ((((D[0]*q + D[1])*q + D[2])*q + D[3])*q + 1.0d);
+        } else {
+            q = p - 0.5d;
+            r = q * q;
+            return (((((A[0]*r + A[1])*r + A[2])*r + A[3])*r + A[4])*r + A[5])*q /
+                   (((((B[0]*r + B[1])*r + B[2])*r + B[3])*r + B[4])*r + 1.0d);
+        }
+    }
+
+    /**
+     * The direction numbers of the first n dimensions, dimension, bit, most significant
+     * first. Dimension 0 is the van der Corput sequence, the rest follow the Bratley and Fox
+     * recurrence on successive primitive polynomials.
+     */
+    private static int[] directions(int n) {
+        int[] v = new int[n * BITS];
+        for (int k = 0; k < BITS; k++) v[k] = 1 << (BITS-1-k);
+
+        int d = 1;
+        for (int s = 1; d < n; s++) { // Degree
+            for (int poly = (1 << s) | 1; poly < (2 << s) && d < n; poly += 2) {
+                if (!isPrimitive(poly, s)) continue;
+
+                int base = d * BITS;
+                for (int k = 0; k < s && k < BITS; k++) { // Initial, odd and below 2^(k+1)
+                    int m = (k == 0) ? 1 : ((int) mix(((long) d << 32) | k) & ((2 << k) - 1)) | 1;
+                    v[base+k] = m << (BITS-1-k);
+                }
+                for (int k = s; k < BITS; k++) {
+                    int x = v[base+k-s] ^ (v[base+k-s] >>> s);
+                    for (int j = 1; j < s; j++) {
+                        if (((poly >>> (s-j)) & 1) != 0) x ^= v[base+k-j];
+                    }
+                    v[base+k] = x;
+                }
+                d++;
+            }
+        }
+
+        return v;
+    }
+
+    /**
+     * @return Whether poly, of the given degree over GF(2), is primitive, x having order
+     *         2^degree - 1
+     */
+    private static boolean isPrimitive(int poly, int degree) {
+        long order = (1L << degree) - 1;
+        if (power(2, order, poly, degree) != 1) return false;
+
+        long rest = order;
+        for (long q = 2; q * q <= rest; q++) {
+            if (rest % q != 0) continue;
+            if (power(2, order / q, poly, degree) == 1) return false;
+            while (rest % q == 0) rest /= q;
+        }
+        return rest == 1 || power(2, order / rest, poly, degree) != 1;
+    }
+
+    /**
+     * @return base^e modulo poly, over GF(2)
+     */
+    private static long power(long base, long e, int poly, int degree) {
+        long result = 1;
+        base = multiply(base, 1, poly, degree); // Reduce
+        for (; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) result = multiply(result, base, poly, degree);
+            base = multiply(base, base, poly, degree);
+        }
+        return result;
+    }
+
+    /**
+     * @return a*b modulo poly, over GF(2), a already reduced or at most degree
+     */
+    private static long multiply(long a, long b, int poly, int degree) {
+        long result = 0;
+        if (((a >>> degree) & 1) != 0) a ^= poly;
+        for (; b != 0; b >>>= 1) {
+            if ((b & 1) != 0) result ^= a;
+            a <<= 1;
+            if (((a >>> degree) & 1) != 0) a ^= poly;
+        }
+        return result;
+    }
+
+    /**
+     * The SplitMix64 finalizer.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,262 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Estimates small extinction probabilities by multilevel splitting.
+ * <p>
+ * Each root run executes as in SwirlEngine, with the same draws. When a run's total population
+ * first falls to a level, it is split: copies of its state continue on fresh draws, and each
+ * carries its share of the run's weight. A run splits at most once a period, so a fall through
+ * several levels at once is split one level a period while it stays below them, rather than
+ * multiplying into a copy per combination. Runs heading towards extinction are thereby sampled
+ * many times over, while the weights keep the estimate unbiased for any levels. The
+ * extinction probability is the weight of the runs that end extinct, in the sense of
+ * SwirlOutputBundle, no reproductive population of some gender in the final period.
+ * <p>
+ * Roots are independent, so the spread of their estimates gives the error, and comparing it
+ * with p(1-p) per run gives the speed-up over plain runs for the same precision.
+ * <p>
+ * Created by Allan Stewart on 2018-04-29.
+ */
+public class SwirlSplitting {
+    public static final String TAG = "SwirlSplitting";
+
+    public final static int SPLITS_DEFAULT = 2;
+
+    //  Copies draw on runs from here up, clear of any root
+    private final static int FIRST_COPY = SwirlEngine.N_RUNS_MAX;
+
+    private final SwirlParameterBundle mParameters;
+    private final SwirlEngine          mEngine;
+    private final int     T, P;
+    private final boolean mGendered;
+    private final boolean mAbsorbing; // Whether zero population is final
+    private final double[] mNoise;
+
+    private long[] mLevels; // Descending total populations
+    private int    mSplits = SPLITS_DEFAULT;
+
+    //  Results
+    private int    mRoots = 0;
+    private double mSum = 0.0d, mSquares = 0.0d; // Of each root's extinct weight
+    private double mRootWeight; // Extinct weight of the current root
+    private long   mSteps = 0L; // Periods executed
+    private long   mTrajectories = 0L;
+    private long   mExtinct = 0L; // Trajectories ending extinct
+    private int    mNextStream = FIRST_COPY;
+
+    /**
+     * Creates an estimator seeded from the clock.
+     *
+     * @param parameters The parameters
+     */
+    public SwirlSplitting(SwirlParameterBundle parameters) {
+        this(parameters, System.currentTimeMillis());
+    }
+
+    /**
+     * Creates an estimator. The levels default to halving the initial population down to a
+     * single individual.
+     *
+     * @param parameters The parameters
+     * @param seed       The engine seed, roots draw as the engine's runs
+     */
+    public SwirlSplitting(SwirlParameterBundle parameters, long seed) {
+        mEngine = new SwirlEngine(parameters, seed); // Validates the parameters
+        mEngine.setKeepData(false);
+        mParameters = parameters;
+        T = parameters.getNPeriods()+1;
+        P = parameters.nGenders() * (parameters.getMaxAge()+1);
+        mGendered = parameters.isGendered();
+        mAbsorbing = parameters.getSupplementRate() == 0;
+        mNoise = new double[T*3];
+
+        long n = parameters.totalInitialPopulation();
+        int nLevels = 0;
+        for (long l = n / 2; l >= 1; l /= 2) nLevels++;
+        mLevels = new long[nLevels];
+        for (int k = 0; k < nLevels; k++) mLevels[k] = n >> (k+1);
+    }
+
+    /**
+     * Executes more roots, adding them to the estimate.
+     *
+     * @param roots The number of roots
+     */
+    public void run(int roots) {
+        if (roots < 0 || roots > FIRST_COPY - mRoots) {
+            throw new InvalidParameterException("Invalid roots: " + roots);
+        }
+        if (!mEngine.isInitialized()) mEngine.initialize();
+
+        long[] population = new long[P];
+        long[] census = new long[SwirlKernel.CENSUS];
+
+        for (int i = mRoots, last = mRoots + roots; i < last; i++) {
+            mEngine.start(population, census);
+            mRootWeight = 0.0d;
+            simulate(i, 0, population, census, 0, 1.0d);
+            mSum += mRootWeight;
+            mSquares += mRootWeight * mRootWeight;
+            mRoots++;
+        }
+    }
+
+    /**
+     * Continues a trajectory from period t to the end, splitting it at the next level it is at or
+     * below, once a period.
+     *
+     * @param stream     The run its draws are keyed on
+     * @param t          The period it is at
+     * @param population Its population at t, s, a, overwritten
+     * @param census     Its census at t, overwritten
+     * @param level      The number of levels it has crossed
+     * @param weight     Its weight
+     */
+    private void simulate(int stream, int t, long[] population, long[] census, int level,
+                          double weight) {
+        long[] old = population, next = new long[P], temp;
+        mTrajectories++;
+
+        while (++t < T) {
+            mEngine.transition(stream, t, old, next, mNoise, census);
+            mSteps++;
+            temp = old;
+            old = next;
+            next = temp;
+
+            long n = census[SwirlKernel.NF] + census[SwirlKernel.NM];
+            if (n == 0 && mAbsorbing) break; // Extinct through the end
+
+            //  Levels crossed beyond the next are split on the following periods
+            if (level < mLevels.length && n <= mLevels[level]) {
+                if (mNextStream > Integer.MAX_VALUE - mSplits) {
+                    throw new IllegalStateException("Too many copies");
+                }
+                weight /= mSplits;
+                level++;
+                for (int c = 1; c < mSplits; c++) { // This continues as the first copy
+                    simulate(mNextStream++, t, old.clone(), census.clone(), level, weight);
+                }
+            }
+        }
+
+        if (census[SwirlKernel.NRF] == 0 || (mGendered && census[SwirlKernel.NRM] == 0)) {
+            mRootWeight += weight;
+            mExtinct++;
+        }
+    }
+
+    //  Results
+
+    /**
+     * @return The estimated extinction probability
+     */
+    public double getProbability() {
+        return (mRoots == 0) ? Double.NaN : mSum / mRoots;
+    }
+
+    /**
+     * @return The variance of the estimate, from the spread of the roots
+     */
+    public double getVariance() {
+        if (mRoots < 2) return Double.NaN;
+        double p = mSum / mRoots;
+        return Math.max(0.0d, mSquares / mRoots - p * p) / (mRoots - 1);
+    }
+
+    /**
+     * @param z The standard normal quantile of the confidence, 1.96 for 95%
+     *
+     * @return The half-width of the confidence interval of the estimate
+     */
+    public double getHalfWidth(double z) {
+        return z * Math.sqrt(getVariance());
+    }
+
+    /**
+     * The work plain runs would take for the same variance, over the work taken, counting
+     * periods executed. Plain runs give a variance of p(1-p) per run of nPeriods periods.
+     *
+     * @return The speed-up, NaN if it cannot be estimated yet
+     */
+    public double getSpeedup() {
+        double p = getProbability(), variance = getVariance();
+        double plainVariance = p * (1.0d - p);
+        if (!(variance > 0.0d) || !(plainVariance > 0.0d)) return Double.NaN;
+        double plainRuns = plainVariance / variance;
+        return plainRuns * (T-1) / mSteps;
+    }
+
+    public int getRoots() {
+        return mRoots;
+    }
+
+    /**
+     * @return The number of trajectories, roots and copies
+     */
+    public long getTrajectories() {
+        return mTrajectories;
+    }
+
+    /**
+     * @return The number of trajectories that ended extinct
+     */
+    public long getExtinctTrajectories() {
+        return mExtinct;
+    }
+
+    /**
+     * @return The number of periods executed
+     */
+    public long getSteps() {
+        return mSteps;
+    }
+
+    //  Settings
+
+    public SwirlParameterBundle getParameters() {
+        return mParameters;
+    }
+
+    /**
+     * @return The engine, whose normal source and kernel settings apply before the first run
+     */
+    public SwirlEngine getEngine() {
+        return mEngine;
+    }
+
+    public long[] getLevels() {
+        return mLevels.clone();
+    }
+
+    /**
+     * Sets the total populations at which runs split. Levels whose crossing is about as
+     * likely as 1/splits keep the number of trajectories steady.
+     *
+     * @param levels Strictly descending and positive
+     */
+    public void setLevels(long[] levels) {
+        for (int k = 0; k < levels.length; k++) {
+            if (levels[k] < 1 || (k > 0 && levels[k] >= levels[k-1])) {
+                throw new InvalidParameterException("Invalid levels");
+            }
+        }
+        mLevels = levels.clone();
+    }
+
+    public int getSplits() {
+        return mSplits;
+    }
+
+    /**
+     * @param splits The copies a run is split into at each level
+     */
+    public void setSplits(int splits) {
+        if (splits < 1) {
+            throw new InvalidParameterException("Invalid splits: " + splits);
+        }
+        mSplits = splits;
+    }
+}
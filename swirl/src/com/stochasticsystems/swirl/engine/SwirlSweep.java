@@ -0,0 +1,322 @@
+package com.stochasticsystems.swirl.engine;
+
+import java.security.InvalidParameterException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Simulates a set of scenarios, each a base set of parameters with some factors changed, see
+ * SwirlFactor. Scenarios come from a full grid, a Latin hypercube, or are given directly.
+ * <p>
+ * Every scenario's runs are executed on one work-stealing pool together, rather than scenario
+ * by scenario, so the pool stays busy through small scenarios and the tail of large ones. Only
+ * statistics are kept. Scenario k is seeded with seed + k times a fixed odd constant, so
+ * results do not depend on the pool. With common random numbers every scenario is seeded with
+ * seed instead, so run i draws the same EVs in each, see SwirlDifference.
+ * <p>
+ * Created by Allan Stewart on 2018-05-13.
+ */
+public class SwirlSweep {
+    public static final String TAG = "SwirlSweep";
+
+    //  Spreads scenario seeds, the golden ratio in 64 bits
+    private final static long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    private final SwirlParameterBundle   mBase;
+    private final SwirlFactor[]          mFactors;
+    private final double[][]             mPoints; // Scenario, factor
+    private final SwirlParameterBundle[] mScenarios; // Null when invalid
+
+    private boolean             mCommon = false; // Common random numbers
+    private SwirlOutputBundle[] mResults = null;
+
+    /**
+     * @param base    The parameters of every scenario before the factors are applied
+     * @param factors The factors varied
+     * @param points  The factor values of each scenario, in the order of factors
+     */
+    public SwirlSweep(SwirlParameterBundle base, SwirlFactor[] factors, double[][] points) {
+        if (base == null || !base.isValid()) {
+            throw new InvalidParameterException("Invalid Parameters");
+        }
+        for (double[] point : points) {
+            if (point.length != factors.length) {
+                throw new InvalidParameterException("Invalid point: " + point.length + " values");
+            }
+        }
+
+        mBase = base;
+        mFactors = factors.clone();
+        mPoints = new double[points.length][];
+        mScenarios = new SwirlParameterBundle[points.length];
+
+        for (int k = 0; k < points.length; k++) {
+            mPoints[k] = points[k].clone();
+            mScenarios[k] = build(base, factors, points[k]);
+        }
+    }
+
+    /**
+     * A full factorial design, the last factor varying fastest.
+     *
+     * @param base    The parameters of every scenario before the factors are applied
+     * @param factors The factors varied
+     * @param levels  The values of each factor
+     *
+     * @return The sweep of every combination of levels
+     */
+    public static SwirlSweep grid(SwirlParameterBundle base, SwirlFactor[] factors,
+                                  double[][] levels) {
+        if (levels.length != factors.length) {
+            throw new InvalidParameterException("Invalid levels: " + levels.length + " factors");
+        }
+
+        int n = 1;
+        for (double[] level : levels) n *= level.length;
+        double[][] points = new double[n][factors.length];
+
+        for (int k = 0; k < n; k++) {
+            for (int j = factors.length - 1, r = k; j >= 0; j--) {
+                points[k][j] = levels[j][r % levels[j].length];
+                r /= levels[j].length;
+            }
+        }
+
+        return new SwirlSweep(base, factors, points);
+    }
+
+    /**
+     * A Latin hypercube design: each factor's range is cut into n equal strata, each stratum is
+     * sampled once, uniformly, and strata are matched across factors at random.
+     *
+     * @param base    The parameters of every scenario before the factors are applied
+     * @param factors The factors varied
+     * @param lower   The lower bound of each factor
+     * @param upper   The upper bound of each factor
+     * @param n       The number of scenarios
+     * @param seed    The seed of the design
+     *
+     * @return The sweep of n scenarios
+     */
+    public static SwirlSweep latinHypercube(SwirlParameterBundle base, SwirlFactor[] factors,
+                                            double[] lower, double[] upper, int n, long seed) {
+        if (lower.length != factors.length || upper.length != factors.length) {
+            throw new InvalidParameterException("Invalid bounds");
+        }
+        if (n < 1) {
+            throw new InvalidParameterException("Invalid scenarios: " + n);
+        }
+
+        Random random = new Random(seed);
+        double[][] points = new double[n][factors.length];
+        int[] strata = new int[n];
+
+        for (int j = 0; j < factors.length; j++) {
+            for (int k = 0; k < n; k++) strata[k] = k;
+            for (int k = n - 1; k > 0; k--) { // Shuffle
+                int r = random.nextInt(k + 1), temp = strata[k];
+                strata[k] = strata[r];
+                strata[r] = temp;
+            }
+            double width = (upper[j] - lower[j]) / n;
+            for (int k = 0; k < n; k++) {
+                points[k][j] = lower[j] + (strata[k] + random.nextDouble()) * width;
+            }
+        }
+
+        return new SwirlSweep(base, factors, points);
+    }
+
+    /**
+     * @return The parameters with the factors applied, or null if invalid
+     */
+    static SwirlParameterBundle build(SwirlParameterBundle base, SwirlFactor[] factors,
+                                      double[] point) {
+        SwirlParameterBuilder builder = new SwirlParameterBuilder(base);
+        for (int j = 0; j < factors.length; j++) {
+            if (!factors[j].apply(builder, point[j])) return null;
+        }
+        return builder.build();
+    }
+
+    /**
+     * Executes every valid scenario on the common pool.
+     *
+     * @param seed The seed of the first scenario
+     *
+     * @return The statistics of each scenario, null where invalid
+     */
+    public SwirlOutputBundle[] run(long seed) {
+        return run(seed, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Executes every valid scenario, their runs spread over one pool.
+     *
+     * @param seed The seed of the first scenario
+     * @param pool The pool, or null to execute scenario by scenario on the calling thread
+     *
+     * @return The statistics of each scenario, null where invalid
+     */
+    public SwirlOutputBundle[] run(long seed, ForkJoinPool pool) {
+        int n = mScenarios.length;
+        SwirlEngine[] engines = new SwirlEngine[n];
+        SwirlOutputBundle[] results = new SwirlOutputBundle[n];
+
+        for (int k = 0; k < n; k++) {
+            if (mScenarios[k] == null) continue;
+            results[k] = new SwirlOutputBundle(mScenarios[k], false);
+            long scenarioSeed = (mCommon) ? seed : seed + k * SEED_STEP;
+            engines[k] = new SwirlEngine(mScenarios[k], scenarioSeed);
+            engines[k].setKeepData(false);
+            engines[k].setOutput(results[k]);
+            engines[k].setPool(pool);
+        }
+
+        ScenarioTask task = new ScenarioTask(engines, 0, n);
+        if (pool == null) {
+            task.compute();
+        } else {
+            pool.invoke(task);
+        }
+
+        mResults = results;
+        return results;
+    }
+
+    /**
+     * Splits scenarios across the pool, each spreading its own runs from within it.
+     */
+    private static class ScenarioTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SwirlEngine[] mEngines;
+        private final int mFirst, mLast;
+
+        ScenarioTask(SwirlEngine[] engines, int first, int last) {
+            mEngines = engines;
+            mFirst = first;
+            mLast = last;
+        }
+
+        @Override
+        protected void compute() {
+            if (mLast - mFirst > 1) {
+                int mid = (mFirst + mLast) >>> 1;
+                invokeAll(new ScenarioTask(mEngines, mFirst, mid),
+                          new ScenarioTask(mEngines, mid, mLast));
+            } else if (mLast > mFirst && mEngines[mFirst] != null) {
+                SwirlEngine engine = mEngines[mFirst];
+                engine.initialize();
+                engine.iterate(engine.iterationsLeft());
+            }
+        }
+    }
+
+    /**
+     * The results as a table, a row per scenario: its factor values, then its runs, extinction
+     * probability and 95% half-width, and the mean and SD of the final total population.
+     * Invalid scenarios are left blank.
+     *
+     * @param delimiter The column delimiter
+     *
+     * @return The table, with a header
+     */
+    public String toTable(String delimiter) {
+        if (mResults == null) {
+            throw new IllegalStateException("Not run");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (SwirlFactor factor : mFactors) sb.append(factor.getName()).append(delimiter);
+        sb.append("Runs").append(delimiter).append("Extinction").append(delimiter)
+          .append("ExtinctionHalfWidth").append(delimiter).append("FinalMean").append(delimiter)
+          .append("FinalSD").append('\n');
+
+        for (int k = 0; k < mPoints.length; k++) {
+            for (double value : mPoints[k]) sb.append(value).append(delimiter);
+            SwirlOutputBundle result = mResults[k];
+            if (result != null) {
+                int t = result.getParameters().getNPeriods();
+                sb.append(result.getCompleteRuns()).append(delimiter)
+                  .append(result.getExtinctionPercent()).append(delimiter)
+                  .append(result.getExtinctionHalfWidth(SwirlAdaptiveRunner.Z_95)).append(delimiter)
+                  .append(result.getSummaryMeans()[t]).append(delimiter)
+                  .append(result.getSummarySTDs()[t]);
+            } else {
+                for (int c = 0; c < 4; c++) sb.append(delimiter);
+            }
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    //  Getters & Setters
+
+    public boolean isCommonRandomNumbers() {
+        return mCommon;
+    }
+
+    /**
+     * @param common Whether every scenario shares the seed, so differences between scenarios
+     *               are measured on the same draws, false by default
+     */
+    public void setCommonRandomNumbers(boolean common) {
+        mCommon = common;
+    }
+
+    /**
+     * Compares two scenarios run by run, on common random numbers.
+     *
+     * @param first  The first scenario
+     * @param second The second scenario
+     *
+     * @return The comparison, to be run
+     */
+    public SwirlDifference difference(int first, int second) {
+        if (mScenarios[first] == null || mScenarios[second] == null) {
+            throw new InvalidParameterException("Invalid scenario");
+        }
+        return new SwirlDifference(mScenarios[first], mScenarios[second]);
+    }
+
+    public SwirlParameterBundle getBase() {
+        return mBase;
+    }
+
+    public SwirlFactor[] getFactors() {
+        return mFactors.clone();
+    }
+
+    public int nScenarios() {
+        return mPoints.length;
+    }
+
+    /**
+     * @param k The scenario
+     *
+     * @return Its factor values
+     */
+    public double[] getPoint(int k) {
+        return mPoints[k].clone();
+    }
+
+    /**
+     * @param k The scenario
+     *
+     * @return Its parameters, or null if the factor values are invalid
+     */
+    public SwirlParameterBundle getParameters(int k) {
+        return mScenarios[k];
+    }
+
+    /**
+     * @return The statistics of each scenario from the last run, null where invalid, or null if
+     *         not run
+     */
+    public SwirlOutputBundle[] getResults() {
+        return (mResults == null) ? null : mResults.clone();
+    }
+}